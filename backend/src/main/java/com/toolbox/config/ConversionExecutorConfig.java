@@ -0,0 +1,64 @@
+package com.toolbox.config;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.context.annotation.Bean;
+import org.springframework.context.annotation.Configuration;
+import org.springframework.scheduling.annotation.EnableScheduling;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadFactory;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Worker pool for conversions. Kept apart from the Tomcat request threads so
+ * that long renders can't starve cheap endpoints like /api/health.
+ *
+ * On Java 21 requests, uploads and downloads run on virtual threads, so any
+ * number of slow clients can be connected; these pools stay bounded platform
+ * threads so CPU-heavy PDFBox/POI work never runs wider than the cores.
+ */
+@Configuration
+@EnableScheduling
+public class ConversionExecutorConfig {
+
+    @Value("${toolbox.jobs.worker-threads:0}")
+    private int workerThreads;
+
+    @Value("${toolbox.jobs.queue-capacity:100}")
+    private int queueCapacity;
+
+    @Value("${toolbox.render.parallelism:0}")
+    private int renderParallelism;
+
+    @Bean(name = "conversionExecutor", destroyMethod = "shutdown")
+    public ThreadPoolExecutor conversionExecutor() {
+        // 0 means "one worker per core", which is what the CPU-bound converters want
+        int threads = workerThreads > 0 ? workerThreads : Runtime.getRuntime().availableProcessors();
+        return new ThreadPoolExecutor(threads, threads, 60, TimeUnit.SECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), namedThreads("conversion-"),
+                new ThreadPoolExecutor.AbortPolicy());
+    }
+
+    /**
+     * Pool for page-level fan-out (rendering/encoding individual PDF pages).
+     * Separate from the job pool so a job waiting on its pages never starves
+     * the workers that render them.
+     */
+    @Bean(name = "pageRenderPool", destroyMethod = "shutdown")
+    public ForkJoinPool pageRenderPool() {
+        int parallelism = renderParallelism > 0 ? renderParallelism : Runtime.getRuntime().availableProcessors();
+        return new ForkJoinPool(parallelism);
+    }
+
+    private static ThreadFactory namedThreads(String prefix) {
+        AtomicInteger counter = new AtomicInteger();
+        return r -> {
+            Thread t = new Thread(r, prefix + counter.incrementAndGet());
+            t.setDaemon(true);
+            return t;
+        };
+    }
+}
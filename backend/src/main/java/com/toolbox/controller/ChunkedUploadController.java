@@ -0,0 +1,152 @@
+package com.toolbox.controller;
+
+import com.toolbox.model.ChunkedUpload;
+import com.toolbox.model.ConversionJob;
+import com.toolbox.service.ChunkedUploadService;
+import com.toolbox.service.ConversionJobService;
+import com.toolbox.service.admission.AdmissionRejectedException;
+import com.toolbox.service.scratch.ScratchQuotaExceededException;
+import com.toolbox.util.PageRanges;
+import jakarta.servlet.http.HttpServletRequest;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Resumable uploads for documents too large for a single multipart request.
+ * The client creates an upload, PUTs raw chunks at chunk-aligned offsets (in
+ * any order, retrying as needed), checks {@code GET /{id}} for what is still
+ * missing after a failure, and finally converts the assembled file.
+ */
+@RestController
+@RequestMapping("/api/uploads")
+@CrossOrigin(origins = "*")
+public class ChunkedUploadController {
+
+    // Enough for a client to resume without sending back a huge list
+    private static final int MAX_MISSING_REPORTED = 100;
+
+    @Autowired
+    private ChunkedUploadService uploadService;
+
+    @Autowired
+    private ConversionJobService conversionJobService;
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> create(@RequestParam("filename") String filename,
+                                                      @RequestParam("size") long size) {
+        try {
+            ChunkedUpload upload = uploadService.create(filename, size);
+            return ResponseEntity.status(HttpStatus.CREATED)
+                    .header(HttpHeaders.LOCATION, "/api/uploads/" + upload.getId())
+                    .body(describe(upload));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            // Too many uploads open; one will finish or expire
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS).build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    @GetMapping("/{id}")
+    public ResponseEntity<Map<String, Object>> status(@PathVariable String id) {
+        return uploadService.find(id)
+                .map(upload -> ResponseEntity.ok(describe(upload)))
+                .orElse(ResponseEntity.notFound().build());
+    }
+
+    /** Raw chunk body (not multipart) so it can go straight to disk. */
+    @PutMapping(value = "/{id}", consumes = MediaType.ALL_VALUE)
+    public ResponseEntity<Map<String, Object>> putChunk(@PathVariable String id,
+                                                        @RequestParam("offset") long offset,
+                                                        HttpServletRequest request) {
+        if (uploadService.find(id).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        try {
+            ChunkedUpload upload = uploadService.writeChunk(id, offset, request.getInputStream());
+            return ResponseEntity.ok(describe(upload));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.notFound().build();
+        } catch (ScratchQuotaExceededException e) {
+            // Chunks are charged as they arrive, so this is where a full scratch disk shows up
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Converts a complete upload and streams the result, like {@code /api/convert}
+     * (including its {@code pages} selection). A rejected request leaves the
+     * upload in place so the client can try again without re-sending it.
+     */
+    @PostMapping("/{id}/convert")
+    public ResponseEntity<StreamingResponseBody> convert(@PathVariable String id,
+                                                         @RequestParam("targetFormat") String targetFormat,
+                                                         @RequestParam(value = "pages", required = false) String pages) {
+        ChunkedUpload upload = uploadService.find(id).orElse(null);
+        if (upload == null) {
+            return ResponseEntity.notFound().build();
+        }
+        if (!upload.isComplete()) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        ConversionJob job;
+        try {
+            job = uploadService.prepareConversion(id, targetFormat, PageRanges.parse(pages));
+            conversionJobService.startForResponse(job);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (IllegalStateException e) {
+            return ResponseEntity.notFound().build();
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+
+        StreamingResponseBody body = out -> conversionJobService.writeResult(job, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"converted." + targetFormat + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
+    }
+
+    @DeleteMapping("/{id}")
+    public ResponseEntity<Void> abort(@PathVariable String id) {
+        if (uploadService.find(id).isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        uploadService.abort(id);
+        return ResponseEntity.noContent().build();
+    }
+
+    private Map<String, Object> describe(ChunkedUpload upload) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", upload.getId());
+        body.put("filename", upload.getFilename());
+        body.put("size", upload.getSize());
+        body.put("chunkSize", upload.getChunkSize());
+        body.put("receivedBytes", upload.getReceivedBytes());
+        body.put("complete", upload.isComplete());
+        body.put("missingOffsets", upload.getMissingOffsets(MAX_MISSING_REPORTED));
+        return body;
+    }
+}
@@ -1,18 +1,33 @@
 package com.toolbox.controller;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.model.ConversionJob;
+import com.toolbox.service.BatchConversionService;
+import com.toolbox.service.ConversionJobService;
+import com.toolbox.service.ConversionRegistry;
+import com.toolbox.service.ConversionResultCache;
+import com.toolbox.service.PageRenderCache;
+import com.toolbox.service.admission.AdmissionRejectedException;
+import com.toolbox.service.admission.ConversionAdmission;
+import com.toolbox.service.scratch.ScratchQuotaExceededException;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.PageRanges;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
-import java.io.File;
-import java.io.IOException;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.stream.Collectors;
 
 @RestController
 @RequestMapping("/api")
@@ -20,42 +35,155 @@ import java.util.List;
 public class ConversionController {
 
     @Autowired
-    private List<ConversionService> conversionServices;
+    private ConversionJobService conversionJobService;
+
+    @Autowired
+    private ConversionResultCache resultCache;
+
+    @Autowired
+    private PageRenderCache pageRenderCache;
+
+    @Autowired
+    private ConversionRegistry conversionRegistry;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionAdmission conversionAdmission;
+
+    @Autowired
+    private BatchConversionService batchConversionService;
+
+    @Value("${toolbox.batch.max-files:500}")
+    private int maxBatchFiles;
 
     @GetMapping("/health")
     public ResponseEntity<String> healthCheck() {
+        if (conversionAdmission.isSaturated()) {
+            // Still alive, just not taking conversions right now
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(conversionAdmission.getRetryAfterSeconds()))
+                    .body("Server is saturated");
+        }
         return ResponseEntity.ok("Server is running");
     }
 
+    /** Target formats reachable from {@code source}, including multi-hop routes. */
+    @GetMapping("/formats")
+    public ResponseEntity<List<String>> targetFormats(@RequestParam("source") String source) {
+        return ResponseEntity.ok(conversionRegistry.targetsFor(source));
+    }
+
+    @GetMapping("/cache/stats")
+    public ResponseEntity<Map<String, Object>> cacheStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("hits", resultCache.getHits());
+        stats.put("misses", resultCache.getMisses());
+        stats.put("evictions", resultCache.getEvictions());
+        stats.put("entries", resultCache.getEntryCount());
+        stats.put("sizeBytes", resultCache.getSizeBytes());
+        // Page previews live in the same disk cache, with a heap tier in front
+        Map<String, Object> previews = new LinkedHashMap<>();
+        previews.put("memoryHits", pageRenderCache.getMemoryHits());
+        previews.put("diskHits", pageRenderCache.getDiskHits());
+        previews.put("misses", pageRenderCache.getMisses());
+        previews.put("memoryBytes", pageRenderCache.getMemoryBytes());
+        stats.put("previews", previews);
+        return ResponseEntity.ok(stats);
+    }
+
+    @GetMapping("/scratch/stats")
+    public ResponseEntity<Map<String, Object>> scratchStats() {
+        Map<String, Object> stats = new LinkedHashMap<>();
+        stats.put("root", scratchStorage.getRoot().toString());
+        stats.put("bytesInUse", scratchStorage.getBytesInUse());
+        stats.put("maxBytes", scratchStorage.getMaxBytes());
+        stats.put("files", scratchStorage.getFileCount());
+        stats.put("openSpaces", scratchStorage.getOpenSpaceCount());
+        return ResponseEntity.ok(stats);
+    }
+
+    /**
+     * Synchronous convenience wrapper over the job API. Converters that can
+     * stream write straight into the response body, so the result never lands
+     * on local disk; everything else runs as a regular job whose file is copied
+     * out once it is done. Either way the work runs on the conversion pool and
+     * the body is written off the Tomcat request threads.
+     *
+     * For PDF sources, {@code pages} (e.g. "1-5,9,20-") limits the conversion
+     * to those pages. PDF to image produces a single image, so it takes a
+     * selection of exactly one page (400 otherwise) and renders page 1 without
+     * one; {@code /api/tools/pdf-to-images} returns several pages as a ZIP.
+     */
     @PostMapping("/convert")
-    public ResponseEntity<Resource> convertFile(@RequestParam("file") MultipartFile file,
-                                                @RequestParam("targetFormat") String targetFormat) {
+    public ResponseEntity<StreamingResponseBody> convertFile(@RequestParam("file") MultipartFile file,
+                                                             @RequestParam("targetFormat") String targetFormat,
+                                                             @RequestParam(value = "pages", required = false) String pages) {
+        ConversionJob job;
         try {
-            String sourceFormat = getFileExtension(file.getOriginalFilename());
-            
-            ConversionService service = conversionServices.stream()
-                .filter(s -> s.supports(sourceFormat, targetFormat))
-                .findFirst()
-                .orElseThrow(() -> new IllegalArgumentException("No converter found for " + sourceFormat + " to " + targetFormat));
-
-            File result = service.convert(file, targetFormat);
-            
-            Resource resource = new FileSystemResource(result);
-            
-            return ResponseEntity.ok()
-                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"converted." + targetFormat + "\"")
-                    .contentType(MediaType.APPLICATION_OCTET_STREAM)
-                    .body(resource);
-                    
+            job = conversionJobService.prepare(file, targetFormat, PageRanges.parse(pages));
+            conversionJobService.startForResponse(job);
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (ScratchQuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
         } catch (Exception e) {
             return ResponseEntity.internalServerError().build();
         }
+
+        StreamingResponseBody body = out -> conversionJobService.writeResult(job, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"converted." + targetFormat + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(body);
     }
 
-    private String getFileExtension(String filename) {
-        if (filename == null || filename.lastIndexOf('.') == -1) {
-            return "";
+    /**
+     * Converts many files in one request and streams back a ZIP of the results
+     * in completion order, plus a manifest.json with the status of every file.
+     * Either one {@code targetFormat} for all files, or {@code targetFormats}
+     * with one comma-separated entry per file.
+     */
+    @PostMapping("/convert/batch")
+    public ResponseEntity<StreamingResponseBody> convertBatch(@RequestParam("files") List<MultipartFile> files,
+                                                              @RequestParam(value = "targetFormat", required = false) String targetFormat,
+                                                              @RequestParam(value = "targetFormats", required = false) String targetFormats) {
+        List<String> targets;
+        if (targetFormats != null) {
+            targets = Arrays.stream(targetFormats.split(",", -1)).map(String::trim).collect(Collectors.toList());
+        } else if (targetFormat != null) {
+            targets = Collections.nCopies(files.size(), targetFormat);
+        } else {
+            return ResponseEntity.badRequest().build();
         }
-        return filename.substring(filename.lastIndexOf('.') + 1);
+        if (files.isEmpty() || files.size() > maxBatchFiles || targets.size() != files.size()) {
+            return ResponseEntity.badRequest().build();
+        }
+
+        List<BatchConversionService.BatchItem> items;
+        try {
+            // The batch paces itself once admitted, so only the door is checked
+            conversionAdmission.checkCapacity();
+            items = batchConversionService.prepare(files, targets);
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+
+        StreamingResponseBody body = out -> batchConversionService.writeZip(items, out);
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"converted.zip\"")
+                .contentType(MediaType.parseMediaType("application/zip"))
+                .body(body);
     }
 }
@@ -0,0 +1,119 @@
+package com.toolbox.controller;
+
+import com.toolbox.model.ConversionJob;
+import com.toolbox.service.ConversionJobService;
+import com.toolbox.service.admission.AdmissionRejectedException;
+import com.toolbox.service.scratch.ScratchQuotaExceededException;
+import com.toolbox.util.PageRanges;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.core.io.FileSystemResource;
+import org.springframework.core.io.Resource;
+import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
+import org.springframework.http.MediaType;
+import org.springframework.http.ResponseEntity;
+import org.springframework.web.bind.annotation.*;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.TimeUnit;
+
+@RestController
+@RequestMapping("/api/jobs")
+@CrossOrigin(origins = "*")
+public class ConversionJobController {
+
+    // Upper bound for long-polling so a client can't park a request forever
+    private static final long MAX_WAIT_SECONDS = 30;
+
+    @Autowired
+    private ConversionJobService conversionJobService;
+
+    @PostMapping
+    public ResponseEntity<Map<String, Object>> submit(@RequestParam("file") MultipartFile file,
+                                                      @RequestParam("targetFormat") String targetFormat,
+                                                      @RequestParam(value = "pages", required = false) String pages) {
+        try {
+            ConversionJob job = conversionJobService.submit(file, targetFormat, PageRanges.parse(pages));
+            return ResponseEntity.accepted()
+                    .header(HttpHeaders.LOCATION, "/api/jobs/" + job.getId())
+                    .body(describe(job));
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (RejectedExecutionException e) {
+            return ResponseEntity.status(HttpStatus.SERVICE_UNAVAILABLE).build();
+        } catch (ScratchQuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (Exception e) {
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Returns the job status. With {@code wait} > 0 the response is held (without
+     * blocking a servlet thread) until the job finishes or the wait runs out.
+     */
+    @GetMapping("/{id}")
+    public CompletableFuture<ResponseEntity<Map<String, Object>>> status(@PathVariable String id,
+                                                                         @RequestParam(value = "wait", defaultValue = "0") long waitSeconds) {
+        Optional<ConversionJob> found = conversionJobService.find(id);
+        if (found.isEmpty()) {
+            return CompletableFuture.completedFuture(ResponseEntity.notFound().build());
+        }
+        ConversionJob job = found.get();
+        long wait = Math.min(Math.max(waitSeconds, 0), MAX_WAIT_SECONDS);
+        if (wait == 0 || job.isDone()) {
+            return CompletableFuture.completedFuture(ResponseEntity.ok(describe(job)));
+        }
+        return job.completion()
+                .thenApply(done -> ResponseEntity.ok(describe(done)))
+                .completeOnTimeout(null, wait, TimeUnit.SECONDS)
+                .thenApply(response -> response != null ? response : ResponseEntity.ok(describe(job)));
+    }
+
+    @GetMapping("/{id}/result")
+    public ResponseEntity<Resource> result(@PathVariable String id) {
+        Optional<ConversionJob> found = conversionJobService.find(id);
+        if (found.isEmpty()) {
+            return ResponseEntity.notFound().build();
+        }
+        ConversionJob job = found.get();
+        if (job.getStatus() == ConversionJob.Status.FAILED) {
+            return ResponseEntity.internalServerError().build();
+        }
+        if (job.getStatus() != ConversionJob.Status.SUCCEEDED) {
+            return ResponseEntity.status(HttpStatus.CONFLICT).build();
+        }
+        return ResponseEntity.ok()
+                .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"converted." + job.getTargetFormat() + "\"")
+                .contentType(MediaType.APPLICATION_OCTET_STREAM)
+                .body(new FileSystemResource(job.getResult()));
+    }
+
+    private Map<String, Object> describe(ConversionJob job) {
+        Map<String, Object> body = new LinkedHashMap<>();
+        body.put("id", job.getId());
+        body.put("status", job.getStatus());
+        body.put("sourceFormat", job.getSourceFormat());
+        body.put("targetFormat", job.getTargetFormat());
+        body.put("createdAt", job.getCreatedAt());
+        if (job.getFinishedAt() != null) {
+            body.put("finishedAt", job.getFinishedAt());
+        }
+        if (job.getError() != null) {
+            body.put("error", job.getError());
+        }
+        if (job.getStatus() == ConversionJob.Status.SUCCEEDED) {
+            body.put("resultUrl", "/api/jobs/" + job.getId() + "/result");
+        }
+        return body;
+    }
+}
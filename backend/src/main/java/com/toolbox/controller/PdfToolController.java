@@ -1,44 +1,292 @@
 package com.toolbox.controller;
 
+import com.toolbox.service.PdfPreviewService;
 import com.toolbox.service.PdfToolService;
+import com.toolbox.service.PreviewDocumentStore;
+import com.toolbox.service.admission.AdmissionRejectedException;
+import com.toolbox.service.admission.ConversionAdmission;
+import com.toolbox.service.scratch.ScratchQuotaExceededException;
+import com.toolbox.service.scratch.ScratchSpace;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.PageRanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
 import org.springframework.beans.factory.annotation.Autowired;
-import org.springframework.core.io.FileSystemResource;
-import org.springframework.core.io.Resource;
+import org.springframework.http.CacheControl;
 import org.springframework.http.HttpHeaders;
+import org.springframework.http.HttpStatus;
 import org.springframework.http.MediaType;
 import org.springframework.http.ResponseEntity;
 import org.springframework.web.bind.annotation.*;
 import org.springframework.web.multipart.MultipartFile;
+import org.springframework.web.servlet.mvc.method.annotation.StreamingResponseBody;
 
 import java.io.File;
+import java.time.Duration;
+import java.util.ArrayList;
 import java.util.List;
+import java.util.Optional;
 
 @RestController
 @RequestMapping("/api/tools")
 @CrossOrigin(origins = "*")
 public class PdfToolController {
 
+    private static final Logger log = LoggerFactory.getLogger(PdfToolController.class);
+
+    private static final String DOCUMENT_ID_HEADER = "X-Document-Id";
+    private static final String PAGE_COUNT_HEADER = "X-Page-Count";
+
+    private static final int MAX_DPI = 600;
+
+    // Merging is mostly copying object streams, so cost it like a megabyte of a cheap conversion
+    private static final long MERGE_BYTES_PER_COST_UNIT = 1024 * 1024;
+
+    // One page at 300 DPI costs what a PDF to image conversion does; pixels grow with DPI squared
+    private static final double RENDER_COST_PER_PAGE = 2;
+    private static final int RENDER_COST_DPI = 300;
+    private static final long MEGABYTE = 1024 * 1024;
+
     @Autowired
     private PdfToolService pdfToolService;
 
+    @Autowired
+    private PdfPreviewService pdfPreviewService;
+
+    @Autowired
+    private PreviewDocumentStore previewDocumentStore;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionAdmission conversionAdmission;
+
+    /**
+     * Merges the uploaded PDFs in order and streams the result back. The optional
+     * {@code pages} parameter selects pages per file, separated by ';' in upload
+     * order, e.g. "1-3;;2-" takes pages 1-3 of the first file, all of the second
+     * and everything from page 2 of the third. More selections than files is a
+     * 400.
+     */
     @PostMapping("/merge")
-    public ResponseEntity<Resource> mergePdfs(@RequestParam("files") List<MultipartFile> files) {
+    public ResponseEntity<StreamingResponseBody> mergePdfs(@RequestParam("files") List<MultipartFile> files,
+                                                           @RequestParam(value = "pages", required = false) String pages) {
+        ScratchSpace space = scratchStorage.open("merge");
         try {
             if (files.isEmpty()) {
+                space.close();
+                return ResponseEntity.badRequest().build();
+            }
+            List<PageRanges> selections = new ArrayList<>();
+            if (pages != null) {
+                for (String spec : pages.split(";", -1)) {
+                    selections.add(PageRanges.parse(spec));
+                }
+            }
+            if (selections.size() > files.size()) {
+                // Checked here too, since the service would only notice after the 200 went out
+                space.close();
                 return ResponseEntity.badRequest().build();
             }
 
-            File result = pdfToolService.mergePdfs(files);
+            conversionAdmission.checkCapacity();
+
+            // Spool while the request is still ours; the merge loads them as files, one at a time
+            List<File> sources = new ArrayList<>();
+            long totalBytes = 0;
+            for (MultipartFile file : files) {
+                sources.add(ConversionInput.spool(file, space).getPath().toFile());
+                totalBytes += file.getSize();
+            }
+            long cost = Math.max(1, totalBytes / MERGE_BYTES_PER_COST_UNIT);
 
-            Resource resource = new FileSystemResource(result);
+            // The merge itself runs on the bounded conversion pool; scratch is dropped once it has been sent
+            StreamingResponseBody body = out -> {
+                try {
+                    // Bound on the worker so PDFBox's scratch files count against this request's space
+                    conversionAdmission.run(cost, () -> scratchStorage.runIn(space, () -> {
+                        pdfToolService.mergePdfs(sources, selections, out);
+                        return null;
+                    }));
+                } finally {
+                    space.close();
+                }
+            };
 
             return ResponseEntity.ok()
                     .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"merged.pdf\"")
                     .contentType(MediaType.APPLICATION_PDF)
-                    .body(resource);
+                    .body(body);
+
+        } catch (IllegalArgumentException e) {
+            space.close();
+            return ResponseEntity.badRequest().build();
+        } catch (AdmissionRejectedException e) {
+            space.close();
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (ScratchQuotaExceededException e) {
+            space.close();
+            log.warn("Merge of {} files rejected: {}", files.size(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (Exception e) {
+            space.close();
+            log.error("Merge of {} files failed", files.size(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * Renders every page (or the selected {@code pages}, e.g. "1-5,9,20-") of a PDF
+     * and streams them back as a ZIP of images.
+     */
+    @PostMapping("/pdf-to-images")
+    public ResponseEntity<StreamingResponseBody> pdfToImages(@RequestParam("file") MultipartFile file,
+                                                             @RequestParam(value = "format", defaultValue = "png") String format,
+                                                             @RequestParam(value = "pages", required = false) String pages,
+                                                             @RequestParam(value = "dpi", defaultValue = "300") int dpi) {
+        try {
+            boolean supportedFormat = "png".equalsIgnoreCase(format) || "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+            if (!supportedFormat || dpi < 10 || dpi > MAX_DPI) {
+                return ResponseEntity.badRequest().build();
+            }
+            PageRanges selection = PageRanges.parse(pages);
+
+            conversionAdmission.checkCapacity();
+
+            // PDFBox wants random access and each render worker opens its own handle
+            ScratchSpace space = scratchStorage.open("pdf-to-images");
+            ConversionInput pdf;
+            try {
+                pdf = ConversionInput.spool(file, space);
+                // A page tree claiming more pages than we'd ever render is refused before the 200 goes out
+                PageRanges.checkPageCount(pdf.getPageCount());
+            } catch (Exception e) {
+                space.close();
+                throw e;
+            }
+            long cost = renderCost(pdf, selection, dpi);
+
+            // Rendering runs on the bounded conversion pool like any other conversion
+            StreamingResponseBody body = out -> {
+                try {
+                    conversionAdmission.run(cost, () -> scratchStorage.runIn(space, () -> {
+                        pdfToolService.renderPagesToZip(pdf.getPath().toFile(), selection, format, dpi, out);
+                        return null;
+                    }));
+                } finally {
+                    space.close();
+                }
+            };
+
+            return ResponseEntity.ok()
+                    .header(HttpHeaders.CONTENT_DISPOSITION, "attachment; filename=\"pages.zip\"")
+                    .contentType(MediaType.parseMediaType("application/zip"))
+                    .body(body);
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (ScratchQuotaExceededException e) {
+            log.warn("PDF to images of {} rejected: {}", file.getOriginalFilename(), e.getMessage());
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (Exception e) {
+            log.error("PDF to images of {} failed", file.getOriginalFilename(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    // Selected pages times pixels per page; megabytes stand in for pages if the count can't be probed
+    private static long renderCost(ConversionInput pdf, PageRanges selection, int dpi) {
+        long pages = pdf.getPageCount();
+        if (pages > 0 && !selection.isAll()) {
+            pages = selection.count((int) pages);
+        }
+        if (pages <= 0) {
+            pages = (pdf.getSize() + MEGABYTE - 1) / MEGABYTE;
+        }
+        double scale = (double) dpi / RENDER_COST_DPI;
+        return Math.max(1, (long) Math.ceil(pages * RENDER_COST_PER_PAGE * scale * scale));
+    }
+
+    /**
+     * Renders one page ({@code page} is 1-based) as a PNG exactly {@code width}
+     * pixels wide, in grayscale or RGB. The document is kept for a while: the
+     * response carries its id (the SHA-256 of the upload) and page count, and
+     * further pages are fetched from {@code GET /preview/{id}/pages/{page}}
+     * without uploading it again.
+     */
+    @PostMapping("/preview")
+    @CrossOrigin(exposedHeaders = {DOCUMENT_ID_HEADER, PAGE_COUNT_HEADER})
+    public ResponseEntity<byte[]> preview(@RequestParam("file") MultipartFile file,
+                                          @RequestParam(value = "page", defaultValue = "1") int page,
+                                          @RequestParam("width") int width,
+                                          @RequestParam(value = "gray", defaultValue = "false") boolean gray) {
+        try {
+            // Before spooling and hashing the upload, like every other conversion
+            conversionAdmission.checkCapacity();
+
+            ConversionInput pdf = previewDocumentStore.retain(file);
+            try {
+                byte[] png = pdfPreviewService.preview(pdf, page - 1, width, gray);
+                return ResponseEntity.ok()
+                        .header(DOCUMENT_ID_HEADER, pdf.getSha256())
+                        .header(PAGE_COUNT_HEADER, String.valueOf(pdf.getPageCount()))
+                        .contentType(MediaType.IMAGE_PNG)
+                        .body(png);
+            } finally {
+                previewDocumentStore.release(pdf.getSha256());
+            }
+
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
+        } catch (ScratchQuotaExceededException e) {
+            return ResponseEntity.status(HttpStatus.PAYLOAD_TOO_LARGE).build();
+        } catch (Exception e) {
+            log.error("Preview of {} failed", file.getOriginalFilename(), e);
+            return ResponseEntity.internalServerError().build();
+        }
+    }
+
+    /**
+     * A page of a document uploaded through {@code POST /preview}, by the id
+     * that request returned. 404 once the document is no longer kept (and the
+     * page wasn't rendered before), in which case the client uploads it again.
+     */
+    @GetMapping("/preview/{documentId}/pages/{page}")
+    public ResponseEntity<byte[]> previewPage(@PathVariable String documentId,
+                                              @PathVariable int page,
+                                              @RequestParam("width") int width,
+                                              @RequestParam(value = "gray", defaultValue = "false") boolean gray) {
+        try {
+            Optional<byte[]> png = pdfPreviewService.preview(documentId, page - 1, width, gray);
+            if (png.isEmpty()) {
+                return ResponseEntity.notFound().build();
+            }
+            // Addressed by content, so the same URL always means the same image
+            return ResponseEntity.ok()
+                    .cacheControl(CacheControl.maxAge(Duration.ofDays(1)))
+                    .contentType(MediaType.IMAGE_PNG)
+                    .body(png.get());
 
+        } catch (IllegalArgumentException e) {
+            return ResponseEntity.badRequest().build();
+        } catch (AdmissionRejectedException e) {
+            return ResponseEntity.status(HttpStatus.TOO_MANY_REQUESTS)
+                    .header(HttpHeaders.RETRY_AFTER, String.valueOf(e.getRetryAfterSeconds()))
+                    .build();
         } catch (Exception e) {
-            e.printStackTrace();
+            log.error("Preview of page {} of {} failed", page, documentId, e);
             return ResponseEntity.internalServerError().build();
         }
     }
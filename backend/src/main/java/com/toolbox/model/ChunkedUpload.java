@@ -0,0 +1,142 @@
+package com.toolbox.model;
+
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.List;
+import java.util.UUID;
+
+/**
+ * A large upload arriving in fixed-size chunks. Chunks may come in any order
+ * and be retried; the set of received chunks is what lets a client resume
+ * after a dropped connection.
+ */
+public class ChunkedUpload {
+
+    private final String id = UUID.randomUUID().toString();
+    private final String filename;
+    private final long size;
+    private final int chunkSize;
+    private final int chunkCount;
+    private final Path path;
+    private final Instant createdAt = Instant.now();
+
+    private final BitSet received;
+    private volatile Instant lastActivity = createdAt;
+    // Chunk writes and hash passes in progress; an upload is never expired while one runs
+    private int active;
+    private boolean closed;
+
+    public ChunkedUpload(String filename, long size, int chunkSize, Path path) {
+        this.filename = filename;
+        this.size = size;
+        this.chunkSize = chunkSize;
+        this.chunkCount = (int) ((size + chunkSize - 1) / chunkSize);
+        this.path = path;
+        this.received = new BitSet(chunkCount);
+    }
+
+    /** Expected length of chunk number {@code chunk}; only the last one may be short. */
+    public long chunkLength(int chunk) {
+        return Math.min(chunkSize, size - (long) chunk * chunkSize);
+    }
+
+    public synchronized boolean isReceived(int chunk) {
+        return received.get(chunk);
+    }
+
+    /** Marks {@code chunk} received; false if it already was (a resend, or a duplicate racing this one). */
+    public synchronized boolean markReceived(int chunk) {
+        boolean first = !received.get(chunk);
+        received.set(chunk);
+        lastActivity = Instant.now();
+        return first;
+    }
+
+    public synchronized boolean isComplete() {
+        return received.cardinality() == chunkCount;
+    }
+
+    public synchronized long getReceivedBytes() {
+        long bytes = (long) received.cardinality() * chunkSize;
+        if (received.get(chunkCount - 1)) {
+            // The last chunk is usually short
+            bytes -= chunkSize - chunkLength(chunkCount - 1);
+        }
+        return bytes;
+    }
+
+    /** Offsets of the first {@code limit} chunks still missing, for the client to (re)send. */
+    public synchronized List<Long> getMissingOffsets(int limit) {
+        List<Long> missing = new ArrayList<>();
+        for (int chunk = received.nextClearBit(0); chunk < chunkCount && missing.size() < limit;
+             chunk = received.nextClearBit(chunk + 1)) {
+            missing.add((long) chunk * chunkSize);
+        }
+        return missing;
+    }
+
+    /**
+     * Notes that a request has started working on the upload (writing a chunk,
+     * hashing it for conversion). False if the upload was closed meanwhile.
+     */
+    public synchronized boolean begin() {
+        if (closed) {
+            return false;
+        }
+        active++;
+        lastActivity = Instant.now();
+        return true;
+    }
+
+    public synchronized void end() {
+        active--;
+        lastActivity = Instant.now();
+    }
+
+    /**
+     * Closes the upload if nothing is working on it and nothing has since
+     * {@code cutoff}; after that {@link #begin} refuses. A chunk trickling in
+     * over a slow link keeps the upload open however long it takes.
+     */
+    public synchronized boolean closeIfIdleSince(Instant cutoff) {
+        if (active > 0 || !lastActivity.isBefore(cutoff)) {
+            return false;
+        }
+        closed = true;
+        return true;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getFilename() {
+        return filename;
+    }
+
+    public long getSize() {
+        return size;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    public int getChunkCount() {
+        return chunkCount;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Instant getLastActivity() {
+        return lastActivity;
+    }
+}
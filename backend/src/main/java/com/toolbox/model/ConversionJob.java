@@ -0,0 +1,90 @@
+package com.toolbox.model;
+
+import java.io.File;
+import java.time.Instant;
+import java.util.UUID;
+import java.util.concurrent.CompletableFuture;
+
+/**
+ * A conversion submitted through the job API. The worker pool fills in the
+ * result (or the error) and completes {@link #completion()} when it is done,
+ * so callers can either poll {@link #getStatus()} or chain on the future.
+ */
+public class ConversionJob {
+
+    public enum Status { QUEUED, RUNNING, SUCCEEDED, FAILED }
+
+    private final String id = UUID.randomUUID().toString();
+    private final String sourceFormat;
+    private final String targetFormat;
+    private final Instant createdAt = Instant.now();
+    private final CompletableFuture<ConversionJob> completion = new CompletableFuture<>();
+
+    private volatile Status status = Status.QUEUED;
+    private volatile Instant finishedAt;
+    private volatile File result;
+    private volatile String error;
+
+    public ConversionJob(String sourceFormat, String targetFormat) {
+        this.sourceFormat = sourceFormat;
+        this.targetFormat = targetFormat;
+    }
+
+    public void markRunning() {
+        status = Status.RUNNING;
+    }
+
+    public void succeed(File result) {
+        this.result = result;
+        this.finishedAt = Instant.now();
+        this.status = Status.SUCCEEDED;
+        completion.complete(this);
+    }
+
+    public void fail(String error) {
+        this.error = error;
+        this.finishedAt = Instant.now();
+        this.status = Status.FAILED;
+        completion.complete(this);
+    }
+
+    public boolean isDone() {
+        return status == Status.SUCCEEDED || status == Status.FAILED;
+    }
+
+    public CompletableFuture<ConversionJob> completion() {
+        return completion;
+    }
+
+    public String getId() {
+        return id;
+    }
+
+    public String getSourceFormat() {
+        return sourceFormat;
+    }
+
+    public String getTargetFormat() {
+        return targetFormat;
+    }
+
+    public Instant getCreatedAt() {
+        return createdAt;
+    }
+
+    public Status getStatus() {
+        return status;
+    }
+
+    public Instant getFinishedAt() {
+        return finishedAt;
+    }
+
+    public File getResult() {
+        return result;
+    }
+
+    public String getError() {
+        return error;
+    }
+}
@@ -0,0 +1,268 @@
+package com.toolbox.service;
+
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.toolbox.model.ConversionJob;
+import com.toolbox.service.scratch.ScratchSpace;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.Deque;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
+
+/**
+ * Converts many files in one request. Every file is spooled and planned up
+ * front (while the upload is still ours), then converted as regular jobs with
+ * a bounded number in flight, and each result is written into a ZIP as soon
+ * as it is done. Files that can't be converted only get a failed entry in
+ * {@code manifest.json}; they never fail the batch.
+ */
+@Service
+public class BatchConversionService {
+
+    static final String MANIFEST_NAME = "manifest.json";
+
+    @Autowired
+    private ConversionJobService conversionJobService;
+
+    @Autowired
+    private ConversionRegistry conversionRegistry;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    @Qualifier("conversionExecutor")
+    private ThreadPoolExecutor conversionExecutor;
+
+    @Autowired
+    private ObjectMapper objectMapper;
+
+    // Jobs of one batch submitted at a time; 0 means twice the worker count
+    @Value("${toolbox.batch.window:0}")
+    private int window;
+
+    /** One file of a batch: either a prepared job or the reason there isn't one. */
+    public static class BatchItem {
+        final int index;
+        final String filename;
+        final String targetFormat;
+        ConversionJob job;
+        String entryName;
+        String error;
+        long bytes;
+        boolean released;
+
+        BatchItem(int index, String filename, String targetFormat) {
+            this.index = index;
+            this.filename = filename;
+            this.targetFormat = targetFormat;
+        }
+    }
+
+    /**
+     * Spools and plans every file. {@code targetFormats} has one entry per file.
+     * Per-file problems (no converter, scratch quota) are recorded on the item.
+     */
+    public List<BatchItem> prepare(List<MultipartFile> files, List<String> targetFormats) {
+        List<BatchItem> items = new ArrayList<>();
+        for (int i = 0; i < files.size(); i++) {
+            MultipartFile file = files.get(i);
+            BatchItem item = new BatchItem(i, file.getOriginalFilename(), targetFormats.get(i));
+            items.add(item);
+            try {
+                // Fail fast on unsupported pairs before copying anything
+                conversionRegistry.route(getFileExtension(item.filename), item.targetFormat);
+                ScratchSpace space = scratchStorage.open("batch");
+                ConversionInput input;
+                try {
+                    input = ConversionInput.spool(file, space);
+                } catch (IOException e) {
+                    space.close();
+                    throw e;
+                }
+                item.job = conversionJobService.prepare(input, space, item.targetFormat);
+            } catch (Exception e) {
+                item.error = describe(e);
+            }
+        }
+        return items;
+    }
+
+    /**
+     * Runs the prepared items and writes the ZIP to {@code out}: results in
+     * completion order, then the manifest. Every job is released by the time
+     * this returns, also when the client goes away half-way.
+     */
+    public void writeZip(List<BatchItem> items, OutputStream out) throws IOException {
+        ZipOutputStream zip = new ZipOutputStream(out);
+        Set<String> entryNames = new HashSet<>();
+        BlockingQueue<BatchItem> completed = new LinkedBlockingQueue<>();
+        Deque<BatchItem> waiting = new ArrayDeque<>();
+        for (BatchItem item : items) {
+            if (item.job != null) {
+                waiting.add(item);
+            }
+        }
+        int limit = window > 0 ? window : 2 * conversionExecutor.getMaximumPoolSize();
+
+        try {
+            int remaining = waiting.size();
+            int inFlight = 0;
+            while (remaining > 0) {
+                // Keep the pool fed while earlier results are being zipped
+                while (inFlight < limit && !waiting.isEmpty()) {
+                    if (start(waiting.poll(), completed)) {
+                        inFlight++;
+                    } else {
+                        remaining--;
+                    }
+                }
+                if (remaining == 0) {
+                    break;
+                }
+                BatchItem done = completed.take();
+                inFlight--;
+                remaining--;
+                writeEntry(zip, done, entryNames);
+            }
+
+            List<Map<String, Object>> manifest = new ArrayList<>();
+            items.stream().sorted(Comparator.comparingInt(item -> item.index)).forEach(item -> manifest.add(describe(item)));
+            zip.putNextEntry(new ZipEntry(MANIFEST_NAME));
+            zip.write(objectMapper.writerWithDefaultPrettyPrinter().writeValueAsBytes(manifest));
+            zip.closeEntry();
+            zip.finish();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while writing batch");
+        } finally {
+            releaseAll(items);
+        }
+    }
+
+    /** Drops every job of a batch that won't be written, e.g. when the request fails before streaming. */
+    public void releaseAll(List<BatchItem> items) {
+        for (BatchItem item : items) {
+            if (item.job != null && !item.released) {
+                item.released = true;
+                conversionJobService.release(item.job.getId());
+            }
+        }
+    }
+
+    // Returns false if the item is already finished with (and recorded as failed)
+    private boolean start(BatchItem item, BlockingQueue<BatchItem> completed) {
+        ConversionJob job = item.job;
+        if (!job.isDone()) {
+            try {
+                conversionJobService.enqueue(job);
+            } catch (RejectedExecutionException e) {
+                // enqueue already released it
+                item.released = true;
+                item.error = "Server busy";
+                return false;
+            }
+        }
+        // Cache hits are done already and go straight to the queue
+        job.completion().whenComplete((j, e) -> completed.add(item));
+        return true;
+    }
+
+    private void writeEntry(ZipOutputStream zip, BatchItem item, Set<String> entryNames) throws IOException {
+        ConversionJob job = item.job;
+        try {
+            if (job.getStatus() != ConversionJob.Status.SUCCEEDED) {
+                item.error = job.getError();
+                return;
+            }
+            File result = job.getResult();
+            // Results are PDFs, images and Office zips: already compressed, so store them
+            CRC32 crc = new CRC32();
+            try (InputStream in = Files.newInputStream(result.toPath())) {
+                byte[] buffer = new byte[64 * 1024];
+                int n;
+                while ((n = in.read(buffer)) != -1) {
+                    crc.update(buffer, 0, n);
+                }
+            }
+            item.bytes = result.length();
+            item.entryName = uniqueEntryName(item, entryNames);
+            ZipEntry entry = new ZipEntry(item.entryName);
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(item.bytes);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            Files.copy(result.toPath(), zip);
+            zip.closeEntry();
+            zip.flush();
+        } finally {
+            item.released = true;
+            conversionJobService.release(job.getId());
+        }
+    }
+
+    // "report.docx" -> "report.pdf"; repeats become "report-2.pdf", ... Directories are dropped.
+    private static String uniqueEntryName(BatchItem item, Set<String> taken) {
+        String name = item.filename != null ? item.filename : "file";
+        name = name.substring(Math.max(name.lastIndexOf('/'), name.lastIndexOf('\\')) + 1);
+        int dot = name.lastIndexOf('.');
+        String base = dot > 0 ? name.substring(0, dot) : name;
+        String candidate = base + "." + item.targetFormat;
+        for (int n = 2; !taken.add(candidate) || candidate.equals(MANIFEST_NAME); n++) {
+            candidate = base + "-" + n + "." + item.targetFormat;
+        }
+        return candidate;
+    }
+
+    private static Map<String, Object> describe(BatchItem item) {
+        Map<String, Object> entry = new LinkedHashMap<>();
+        entry.put("index", item.index);
+        entry.put("file", item.filename);
+        entry.put("targetFormat", item.targetFormat);
+        if (item.error == null && item.entryName != null) {
+            entry.put("status", "converted");
+            entry.put("entry", item.entryName);
+            entry.put("bytes", item.bytes);
+        } else {
+            entry.put("status", "failed");
+            entry.put("error", item.error != null ? item.error : "Not converted");
+        }
+        return entry;
+    }
+
+    private static String describe(Exception e) {
+        return e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName();
+    }
+
+    private String getFileExtension(String filename) {
+        if (filename == null || filename.lastIndexOf('.') == -1) {
+            return "";
+        }
+        return filename.substring(filename.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,260 @@
+package com.toolbox.service;
+
+import com.toolbox.model.ChunkedUpload;
+import com.toolbox.model.ConversionJob;
+import com.toolbox.service.admission.ConversionAdmission;
+import com.toolbox.service.scratch.ScratchSpace;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.PageRanges;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HexFormat;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Chunked, resumable uploads. Each upload gets a (sparse) scratch file and
+ * every chunk is written straight from the request body to its offset, so
+ * nothing is buffered in the servlet layer and a dropped connection only
+ * costs the chunk that was in flight.
+ *
+ * Scratch quota is charged chunk by chunk as data arrives, not for the
+ * announced size up front, so a few clients that open large uploads and never
+ * send anything can't hold the global quota hostage. The number of open
+ * uploads is capped too, and an upload that hasn't received a single chunk is
+ * dropped much sooner than one that is under way.
+ */
+@Service
+public class ChunkedUploadService {
+
+    private static final int COPY_BUFFER_BYTES = 256 * 1024;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionRegistry conversionRegistry;
+
+    @Autowired
+    private ConversionJobService conversionJobService;
+
+    @Autowired
+    private ConversionAdmission conversionAdmission;
+
+    @Value("${toolbox.uploads.max-bytes:536870912}")
+    private long maxBytes;
+
+    @Value("${toolbox.uploads.chunk-size:8388608}")
+    private int chunkSize;
+
+    @Value("${toolbox.uploads.ttl:PT1H}")
+    private Duration uploadTtl;
+
+    // Uploads that were created but never sent a chunk
+    @Value("${toolbox.uploads.empty-ttl:PT5M}")
+    private Duration emptyUploadTtl;
+
+    @Value("${toolbox.uploads.max-open:16}")
+    private int maxOpen;
+
+    private final Map<String, ChunkedUpload> uploads = new ConcurrentHashMap<>();
+    private final Map<String, ScratchSpace> spaces = new ConcurrentHashMap<>();
+
+    /**
+     * Starts an upload of {@code size} bytes. Nothing is reserved yet; each
+     * chunk is charged against the scratch quota when it arrives.
+     *
+     * @throws IllegalStateException if too many uploads are already open
+     */
+    public ChunkedUpload create(String filename, long size) throws IOException {
+        if (size <= 0 || size > maxBytes) {
+            throw new IllegalArgumentException("Upload size must be between 1 and " + maxBytes + " bytes");
+        }
+        ScratchSpace space = scratchStorage.open("upload");
+        try {
+            File file = space.createFile("chunked-", ".bin");
+            ChunkedUpload upload = new ChunkedUpload(filename, size, chunkSize, file.toPath());
+            // Check and insert together so a burst of creates can't all squeeze past the cap
+            synchronized (uploads) {
+                if (uploads.size() >= maxOpen) {
+                    throw new IllegalStateException("Too many uploads in progress");
+                }
+                spaces.put(upload.getId(), space);
+                uploads.put(upload.getId(), upload);
+            }
+            return upload;
+        } catch (IOException | RuntimeException e) {
+            space.close();
+            throw e;
+        }
+    }
+
+    public Optional<ChunkedUpload> find(String id) {
+        return Optional.ofNullable(uploads.get(id));
+    }
+
+    /**
+     * Writes one chunk from {@code body} at {@code offset}. Offsets must be on a
+     * chunk boundary and the body must be exactly one chunk long; a chunk that
+     * arrives short is not marked received and can simply be sent again.
+     */
+    public ChunkedUpload writeChunk(String id, long offset, InputStream body) throws IOException {
+        ChunkedUpload upload = find(id).orElseThrow(() -> new IllegalStateException("Unknown upload " + id));
+        if (offset < 0 || offset >= upload.getSize() || offset % upload.getChunkSize() != 0) {
+            throw new IllegalArgumentException("Offset " + offset + " is not a chunk boundary");
+        }
+        int chunk = (int) (offset / upload.getChunkSize());
+        long expected = upload.chunkLength(chunk);
+        // Held until the chunk is in, so the sweeper can't expire the upload under a slow write
+        if (!upload.begin()) {
+            throw new IllegalStateException("Unknown upload " + id);
+        }
+        try {
+            return writeChunk(upload, chunk, offset, expected, body);
+        } finally {
+            upload.end();
+        }
+    }
+
+    private ChunkedUpload writeChunk(ChunkedUpload upload, int chunk, long offset, long expected, InputStream body)
+            throws IOException {
+        ScratchSpace space = spaces.get(upload.getId());
+        if (space == null) {
+            throw new IllegalStateException("Unknown upload " + upload.getId());
+        }
+
+        // A resend overwrites bytes that were already paid for
+        File file = upload.getPath().toFile();
+        long charged = upload.isReceived(chunk) ? 0 : expected;
+        space.reserve(file, charged);
+        try {
+            ReadableByteChannel source = Channels.newChannel(body);
+            try (FileChannel target = FileChannel.open(upload.getPath(), StandardOpenOption.WRITE)) {
+                // Positional writes, not transferFrom: the file isn't preallocated and transferFrom
+                // won't write past its end, while write() extends it (leaving a hole for missing chunks)
+                ByteBuffer buffer = ByteBuffer.allocate((int) Math.min(COPY_BUFFER_BYTES, expected));
+                long written = 0;
+                while (written < expected) {
+                    buffer.clear().limit((int) Math.min(buffer.capacity(), expected - written));
+                    if (source.read(buffer) <= 0) {
+                        break;
+                    }
+                    buffer.flip();
+                    while (buffer.hasRemaining()) {
+                        written += target.write(buffer, offset + written);
+                    }
+                }
+                if (written < expected) {
+                    throw new IOException("Chunk at " + offset + " ended after " + written + " of " + expected + " bytes");
+                }
+            }
+            if (body.read() != -1) {
+                throw new IllegalArgumentException("Chunk at " + offset + " is longer than " + expected + " bytes");
+            }
+        } catch (IOException | RuntimeException e) {
+            // The client sends the chunk again, and pays for it then
+            space.unreserve(file, charged);
+            throw e;
+        }
+        if (!upload.markReceived(chunk)) {
+            // Another request delivered the same chunk first
+            space.unreserve(file, charged);
+        }
+        return upload;
+    }
+
+    /**
+     * Hands a complete upload over to the conversion pipeline, limited to
+     * {@code pages} for PDF sources like {@code /api/convert}. From here on the
+     * job owns the assembled file and deletes it when it is released.
+     */
+    public ConversionJob prepareConversion(String id, String targetFormat, PageRanges pages) throws IOException {
+        ChunkedUpload upload = find(id).orElseThrow(() -> new IllegalStateException("Unknown upload " + id));
+        if (!upload.isComplete()) {
+            throw new IllegalStateException("Upload " + id + " is missing chunks");
+        }
+        // Check before giving up the upload, so a typo in the format doesn't lose 500MB
+        conversionRegistry.route(getFileExtension(upload.getFilename()), targetFormat);
+        // Same for a full backlog: the client should retry later with the upload still here
+        conversionAdmission.checkCapacity();
+
+        // Hashing 500MB takes a while; don't let the sweeper expire the upload meanwhile
+        ScratchSpace space = spaces.get(id);
+        if (space == null || !upload.begin()) {
+            throw new IllegalStateException("Unknown upload " + id);
+        }
+        ConversionInput input;
+        try {
+            input = new ConversionInput(space, upload.getPath(), upload.getFilename(), null, sha256(upload));
+            // A selection past the end (or a PDF claiming absurdly many pages) is a 400 with the upload kept
+            conversionJobService.checkPages(input, targetFormat, pages);
+        } finally {
+            upload.end();
+        }
+        if (!spaces.remove(id, space)) {
+            // Lost a race with another convert call or the sweeper
+            throw new IllegalStateException("Unknown upload " + id);
+        }
+        uploads.remove(id);
+        return conversionJobService.prepare(input, space, targetFormat, pages);
+    }
+
+    public void abort(String id) {
+        uploads.remove(id);
+        ScratchSpace space = spaces.remove(id);
+        if (space != null) {
+            space.close();
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${toolbox.uploads.sweep-interval-ms:60000}")
+    void evictStaleUploads() {
+        Instant now = Instant.now();
+        for (ChunkedUpload upload : uploads.values()) {
+            Duration ttl = upload.getReceivedBytes() == 0 ? emptyUploadTtl : uploadTtl;
+            if (upload.closeIfIdleSince(now.minus(ttl))) {
+                abort(upload.getId());
+            }
+        }
+    }
+
+    // Chunks arrive out of order, so the content hash can only be taken once they're all in
+    private static String sha256(ChunkedUpload upload) throws IOException {
+        try {
+            MessageDigest digest = MessageDigest.getInstance("SHA-256");
+            try (InputStream in = new DigestInputStream(Files.newInputStream(upload.getPath()), digest)) {
+                in.transferTo(OutputStream.nullOutputStream());
+            }
+            return HexFormat.of().formatHex(digest.digest());
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    private String getFileExtension(String filename) {
+        if (filename == null || filename.lastIndexOf('.') == -1) {
+            return "";
+        }
+        return filename.substring(filename.lastIndexOf('.') + 1);
+    }
+}
@@ -0,0 +1,485 @@
+package com.toolbox.service;
+
+import com.toolbox.model.ConversionJob;
+import com.toolbox.service.admission.ConversionAdmission;
+import com.toolbox.service.admission.ConversionCostEstimator;
+import com.toolbox.service.scratch.ScratchSpace;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.PageRanges;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Runs conversions on the dedicated worker pool and keeps track of their
+ * state so clients can poll for the result instead of holding a request open.
+ */
+@Service
+public class ConversionJobService {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversionJobService.class);
+
+    @Autowired
+    private ConversionRegistry conversionRegistry;
+
+    @Autowired
+    private ConversionResultCache resultCache;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    @Qualifier("conversionExecutor")
+    private ThreadPoolExecutor conversionExecutor;
+
+    @Autowired
+    private ConversionAdmission conversionAdmission;
+
+    @Autowired
+    private ConversionCostEstimator costEstimator;
+
+    @Value("${toolbox.jobs.result-ttl:PT15M}")
+    private Duration resultTtl;
+
+    // Streamed results are teed to scratch for the cache only up to this size
+    @Value("${toolbox.cache.max-streamed-bytes:16777216}")
+    private long maxStreamedCacheBytes;
+
+    private final Map<String, ConversionJob> jobs = new ConcurrentHashMap<>();
+    private final Map<String, JobContext> contexts = new ConcurrentHashMap<>();
+
+    /** What a job needs to run, plus the scratch space holding its files. */
+    private static class JobContext {
+        final ScratchSpace space;
+        final ConversionInput input;
+        final ConversionRoute route;
+        final PageRanges pages;
+        final String cacheKey;
+        final long cost;
+
+        JobContext(ScratchSpace space, ConversionInput input, ConversionRoute route, PageRanges pages,
+                   String cacheKey, long cost) {
+            this.space = space;
+            this.input = input;
+            this.route = route;
+            this.pages = pages;
+            this.cacheKey = cacheKey;
+            this.cost = cost;
+        }
+    }
+
+    /**
+     * Spools the upload, plans the route and checks the result cache. On a cache
+     * hit the returned job is already done; otherwise it is ready to be either
+     * {@link #enqueue enqueued} or {@link #streamTo streamed}. {@code pages}
+     * limits a PDF conversion to the selected pages.
+     */
+    public ConversionJob prepare(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        // Fail fast on unsupported pairs before copying anything
+        conversionRegistry.route(getFileExtension(file.getOriginalFilename()), targetFormat);
+        // ...and before spooling anything if we're already saturated
+        conversionAdmission.checkCapacity();
+
+        // The servlet upload is gone once the request returns, so take our own copy
+        ScratchSpace space = scratchStorage.open("job");
+        ConversionInput input;
+        try {
+            input = ConversionInput.spool(file, space);
+        } catch (IOException e) {
+            space.close();
+            throw e;
+        }
+        return prepare(input, space, targetFormat, pages);
+    }
+
+    /** Prepares a conversion of every page, see below. */
+    public ConversionJob prepare(ConversionInput input, ScratchSpace space, String targetFormat) {
+        return prepare(input, space, targetFormat, PageRanges.all());
+    }
+
+    /**
+     * Same as {@link #prepare(MultipartFile, String, PageRanges)} for input
+     * that is already in scratch (e.g. an assembled chunked upload). The job
+     * takes ownership of {@code space} and closes it when the job is released.
+     */
+    public ConversionJob prepare(ConversionInput input, ScratchSpace space, String targetFormat, PageRanges pages) {
+        String sourceFormat = getFileExtension(input.getOriginalFilename());
+        ConversionRoute route;
+        Map<String, String> options = new HashMap<>();
+        options.put("source", sourceFormat.toLowerCase());
+        try {
+            route = conversionRegistry.route(sourceFormat, targetFormat);
+            pages = checkPages(route, input, pages);
+            if (!pages.isAll()) {
+                options.put("pages", pages.toString());
+            }
+        } catch (IllegalArgumentException e) {
+            space.close();
+            throw e;
+        }
+        String cacheKey = resultCache.key(input.getSha256(), targetFormat, options);
+        ConversionJob job = new ConversionJob(sourceFormat, targetFormat);
+        jobs.put(job.getId(), job);
+
+        // Pinned until the job is released, so eviction can't delete it while it is the job's result
+        Optional<File> cached = resultCache.acquire(cacheKey);
+        if (cached.isPresent()) {
+            // Same bytes converted to the same format before: no need to touch PDFBox/POI
+            space.close();
+            job.succeed(cached.get());
+            return job;
+        }
+        contexts.put(job.getId(), new JobContext(space, input, route, pages, cacheKey,
+                costEstimator.estimate(route, input, pages)));
+        return job;
+    }
+
+    /**
+     * Checks {@code pages} against {@code input} the way {@link #prepare} will,
+     * but leaves the input alone, so a caller can keep it when the selection
+     * is rejected. Throws IllegalArgumentException like prepare does.
+     */
+    public void checkPages(ConversionInput input, String targetFormat, PageRanges pages) {
+        checkPages(conversionRegistry.route(getFileExtension(input.getOriginalFilename()), targetFormat), input, pages);
+    }
+
+    private PageRanges checkPages(ConversionRoute route, ConversionInput input, PageRanges pages) {
+        if ("pdf".equalsIgnoreCase(getFileExtension(input.getOriginalFilename()))) {
+            PageRanges.checkPageCount(input.getPageCount());
+        }
+        return pages.isAll() ? pages : resolvePages(route, input, pages);
+    }
+
+    /**
+     * Checks a page selection against the document and normalizes it, so
+     * "3,1-2" and "1-3" share a cache entry and a selection of every page is
+     * the same as none.
+     */
+    private static PageRanges resolvePages(ConversionRoute route, ConversionInput input, PageRanges pages) {
+        if (!route.supportsPageSelection()) {
+            throw new IllegalArgumentException("Converting from " + route.getHops().get(0).getSourceFormat()
+                    + " doesn't take a page selection");
+        }
+        // Already checked against PageRanges.MAX_PAGE_COUNT, but counted arithmetically anyway
+        int pageCount = Math.max(input.getPageCount(), 0);
+        int selected = pages.count(pageCount);
+        if (selected == 0) {
+            throw new IllegalArgumentException("No pages selected, document has " + pageCount + " pages");
+        }
+        if (selected > route.getMaxSelectedPages()) {
+            throw new IllegalArgumentException("Converting to " + route.getLastHop().getTargetFormat() + " takes at most "
+                    + route.getMaxSelectedPages() + " page(s), " + selected + " selected");
+        }
+        return pages.normalize(pageCount);
+    }
+
+    /**
+     * Gets a prepared job going for a synchronous response: routes that can
+     * stream wait for {@link #writeResult}, everything else is enqueued now.
+     */
+    public void startForResponse(ConversionJob job) {
+        if (!job.isDone() && !canStream(job)) {
+            enqueue(job);
+        }
+    }
+
+    /**
+     * Writes the result of a job started with {@link #startForResponse} to
+     * {@code out}: streamed straight from the converter where possible,
+     * otherwise copied from the result file once the job is done. The job is
+     * released afterwards, nobody can ask for it again.
+     */
+    public void writeResult(ConversionJob job, OutputStream out) throws IOException {
+        if (job.getStatus() == ConversionJob.Status.QUEUED && canStream(job)) {
+            streamTo(job, out);
+            return;
+        }
+        try {
+            ConversionJob done = job.completion().join();
+            if (done.getStatus() != ConversionJob.Status.SUCCEEDED) {
+                throw new IOException("Conversion failed: " + done.getError());
+            }
+            Files.copy(done.getResult().toPath(), out);
+        } finally {
+            release(job.getId());
+        }
+    }
+
+    /** Prepares and enqueues a job whose result is kept as a file for later download. */
+    public ConversionJob submit(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        ConversionJob job = prepare(file, targetFormat, pages);
+        if (!job.isDone()) {
+            enqueue(job);
+        }
+        return job;
+    }
+
+    public void enqueue(ConversionJob job) {
+        JobContext context = contexts.get(job.getId());
+        CompletableFuture<Void> task = conversionAdmission.submit(context.cost, () -> run(job, context));
+        if (task.isCompletedExceptionally()) {
+            release(job.getId());
+            throw new RejectedExecutionException("Conversion pool is full");
+        }
+        task.exceptionally(failure -> {
+            // Waited in the admission backlog, then the pool turned it away
+            if (!job.isDone()) {
+                fail(job, failure);
+            }
+            return null;
+        });
+    }
+
+    /** Whether a prepared job can write its result straight to a stream. */
+    public boolean canStream(ConversionJob job) {
+        JobContext context = contexts.get(job.getId());
+        return context != null && context.route.isStreaming();
+    }
+
+    /**
+     * Runs a prepared job on the worker pool, writing the result to {@code out}
+     * instead of a file, and waits for it. Results up to the streamed cache
+     * limit are teed to a scratch file on the way through (not the heap, which
+     * admission doesn't account for) and moved into the cache afterwards. The
+     * job is released afterwards.
+     */
+    public void streamTo(ConversionJob job, OutputStream out) throws IOException {
+        JobContext context = contexts.get(job.getId());
+        CapturingOutputStream capture = new CapturingOutputStream(out, context.space, maxStreamedCacheBytes);
+        job.markRunning();
+        try {
+            conversionAdmission.run(context.cost, () -> scratchStorage.runIn(context.space, () -> {
+                context.route.execute(context.input, context.pages, capture);
+                return null;
+            }));
+            capture.flush();
+            job.succeed(null);
+            File captured = capture.finish();
+            if (captured != null) {
+                try {
+                    File stored = resultCache.put(context.cacheKey, captured);
+                    if (stored != captured) {
+                        context.space.detach(captured);
+                    }
+                    // Nobody holds a streamed result, so let go of the pin put() hands back
+                    resultCache.release(stored);
+                } catch (IOException | RuntimeException e) {
+                    // The client already has the whole result, so this must not fail the job
+                    log.warn("Could not cache the result of job {}: {}", job.getId(), e.toString());
+                }
+            }
+        } catch (IOException | RuntimeException e) {
+            job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+            throw e;
+        } finally {
+            capture.discard();
+            release(job.getId());
+        }
+    }
+
+    public Optional<ConversionJob> find(String id) {
+        return Optional.ofNullable(jobs.get(id));
+    }
+
+    public int getQueuedCount() {
+        return conversionExecutor.getQueue().size();
+    }
+
+    public int getActiveCount() {
+        return conversionExecutor.getActiveCount();
+    }
+
+    /**
+     * Forgets a job and deletes its scratch files. Called once its result has
+     * been sent, or when it expires.
+     */
+    public void release(String jobId) {
+        ConversionJob job = jobs.get(jobId);
+        if (job != null) {
+            // Locked against run() handing over a result, so its cache pin is dropped exactly once
+            synchronized (job) {
+                if (jobs.remove(jobId, job) && job.getResult() != null) {
+                    resultCache.release(job.getResult());
+                }
+            }
+        }
+        JobContext context = contexts.remove(jobId);
+        if (context != null) {
+            context.space.close();
+        }
+    }
+
+    private void run(ConversionJob job, JobContext context) {
+        job.markRunning();
+        try {
+            File result = scratchStorage.runIn(context.space, () -> context.route.execute(context.input, context.pages));
+            context.input.delete();
+            File stored = resultCache.put(context.cacheKey, result);
+            if (stored != result) {
+                // Moved into the cache, which manages its lifetime from now on
+                context.space.detach(result);
+            }
+            synchronized (job) {
+                job.succeed(stored);
+                if (!jobs.containsKey(job.getId())) {
+                    // Released while it ran (e.g. its batch failed); nobody will unpin it later
+                    resultCache.release(stored);
+                }
+            }
+        } catch (Exception e) {
+            fail(job, e);
+        }
+    }
+
+    private void fail(ConversionJob job, Throwable e) {
+        // Nothing worth keeping, free the scratch space right away
+        JobContext failed = contexts.remove(job.getId());
+        if (failed != null) {
+            failed.space.close();
+        }
+        job.fail(e.getMessage() != null ? e.getMessage() : e.getClass().getSimpleName());
+    }
+
+    /**
+     * Passes bytes through and tees them to a scratch file until the copy would
+     * grow past {@code limit}. The copy is best effort: if it can't be written
+     * (quota, disk) it is dropped and the response carries on.
+     */
+    private static class CapturingOutputStream extends FilterOutputStream {
+        private final ScratchSpace space;
+        private final long limit;
+        private File file;
+        private OutputStream copy;
+        private long copied;
+
+        CapturingOutputStream(OutputStream out, ScratchSpace space, long limit) {
+            super(out);
+            this.space = space;
+            this.limit = limit;
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            capture(new byte[]{(byte) b}, 0, 1);
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            capture(b, off, len);
+        }
+
+        @Override
+        public void close() throws IOException {
+            // Converters may close the stream they were given; the response is the controller's to close
+            flush();
+        }
+
+        /** The complete copy, or null if there is none. The caller owns the file from here on. */
+        File finish() {
+            if (copied > limit) {
+                return null;
+            }
+            try {
+                if (copy == null) {
+                    // Nothing was written at all; an empty result is still a result
+                    open();
+                }
+                copy.close();
+            } catch (IOException | RuntimeException e) {
+                discard();
+                return null;
+            }
+            File captured = file;
+            copy = null;
+            file = null;
+            return captured;
+        }
+
+        /** Drops whatever copy is left (no-op after {@link #finish}). */
+        void discard() {
+            if (copy != null) {
+                try {
+                    copy.close();
+                } catch (IOException ignored) {
+                    // Deleted next anyway
+                }
+                copy = null;
+            }
+            if (file != null) {
+                space.delete(file);
+                file = null;
+            }
+        }
+
+        private void capture(byte[] b, int off, int len) {
+            if (copied > limit) {
+                return;
+            }
+            copied += len;
+            if (copied > limit) {
+                discard();
+                return;
+            }
+            try {
+                if (copy == null) {
+                    open();
+                }
+                copy.write(b, off, len);
+            } catch (IOException | RuntimeException e) {
+                // Not worth failing the response over; just don't cache it
+                discard();
+                copied = limit + 1;
+            }
+        }
+
+        private void open() throws IOException {
+            file = space.createFile("streamed-", ".out");
+            copy = new BufferedOutputStream(space.newOutputStream(file));
+        }
+    }
+
+    @Scheduled(fixedDelayString = "${toolbox.jobs.sweep-interval-ms:60000}")
+    void evictExpiredJobs() {
+        Instant cutoff = Instant.now().minus(resultTtl);
+        for (ConversionJob job : jobs.values()) {
+            boolean expired = job.isDone() && job.getFinishedAt().isBefore(cutoff);
+            // Prepared for streaming but the response was never written (client went away)
+            boolean abandoned = job.getStatus() == ConversionJob.Status.QUEUED && job.getCreatedAt().isBefore(cutoff)
+                    && canStream(job);
+            if (expired || abandoned) {
+                release(job.getId());
+            }
+        }
+    }
+
+    private String getFileExtension(String filename) {
+        if (filename == null || filename.lastIndexOf('.') == -1) {
+            return "";
+        }
+        return filename.substring(filename.lastIndexOf('.') + 1);
+    }
+}
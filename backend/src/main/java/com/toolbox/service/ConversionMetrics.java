@@ -0,0 +1,219 @@
+package com.toolbox.service;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.DistributionSummary;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import io.micrometer.core.instrument.Tags;
+import io.micrometer.core.instrument.Timer;
+import io.micrometer.core.instrument.binder.jvm.ExecutorServiceMetrics;
+import jakarta.annotation.PostConstruct;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Micrometer instrumentation for conversions, one sample per hop so a
+ * multi-hop route shows up under each converter it uses. Everything is
+ * tagged with source format, target format and converter class:
+ *
+ * <ul>
+ *   <li>{@code toolbox.conversion} timer (with histogram buckets for p99 alerts), plus {@code outcome}</li>
+ *   <li>{@code toolbox.conversion.errors} counter, plus {@code exception}</li>
+ *   <li>{@code toolbox.conversion.input} / {@code .output} summaries in bytes</li>
+ *   <li>{@code toolbox.conversion.pages} summary, for converters that report pages</li>
+ *   <li>{@code toolbox.conversions.active} gauge per converter</li>
+ * </ul>
+ *
+ * The conversion and render pools are registered as executor metrics too.
+ */
+@Service
+public class ConversionMetrics {
+
+    private static final Logger log = LoggerFactory.getLogger(ConversionMetrics.class);
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    @Autowired
+    @Qualifier("conversionExecutor")
+    private ThreadPoolExecutor conversionExecutor;
+
+    @Autowired
+    @Qualifier("pageRenderPool")
+    private ForkJoinPool renderPool;
+
+    private final Map<String, AtomicInteger> active = new ConcurrentHashMap<>();
+
+    // Pages reported by the converter currently running on this thread
+    private final ThreadLocal<Sample> current = new ThreadLocal<>();
+
+    @FunctionalInterface
+    public interface FileConversion {
+        File convert() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface StreamedConversion {
+        void convert(OutputStream out) throws IOException;
+    }
+
+    @PostConstruct
+    void bindPools() {
+        new ExecutorServiceMetrics(conversionExecutor, "conversion", Tags.empty()).bindTo(meterRegistry);
+        new ExecutorServiceMetrics(renderPool, "page-render", Tags.empty()).bindTo(meterRegistry);
+    }
+
+    public File recordFile(String source, String target, ConversionService service, MultipartFile input,
+                           FileConversion conversion) throws IOException {
+        Sample sample = start(source, target, service, input);
+        try {
+            File result = conversion.convert();
+            sample.outputBytes = result.length();
+            return result;
+        } catch (Throwable e) {
+            sample.failure = e;
+            throw e;
+        } finally {
+            current.remove();
+            sample.active.decrementAndGet();
+            record(sample);
+        }
+    }
+
+    public void recordStreamed(String source, String target, ConversionService service, MultipartFile input,
+                               OutputStream out, StreamedConversion conversion) throws IOException {
+        Sample sample = start(source, target, service, input);
+        CountingOutputStream counting = new CountingOutputStream(out);
+        try {
+            conversion.convert(counting);
+            sample.outputBytes = counting.count;
+        } catch (Throwable e) {
+            sample.failure = e;
+            throw e;
+        } finally {
+            current.remove();
+            sample.active.decrementAndGet();
+            record(sample);
+        }
+    }
+
+    /**
+     * Called by converters that know how many pages they read or wrote. A no-op
+     * outside a recorded conversion (e.g. the PDF tools endpoints).
+     */
+    public void recordPages(int pages) {
+        Sample sample = current.get();
+        if (sample != null) {
+            sample.pages += pages;
+        }
+    }
+
+    private Sample start(String source, String target, ConversionService service, MultipartFile input) {
+        String converter = service.getClass().getSimpleName();
+        Sample sample = new Sample(Tags.of("source", source.toLowerCase(), "target", target.toLowerCase(),
+                "converter", converter), activeCounter(converter), input.getSize());
+        sample.active.incrementAndGet();
+        current.set(sample);
+        return sample;
+    }
+
+    // Called once the thread and the active gauge are cleaned up, whatever the outcome (Errors included)
+    private void record(Sample sample) {
+        long elapsed = System.nanoTime() - sample.startNanos;
+        Throwable failure = sample.failure;
+
+        Timer.builder("toolbox.conversion")
+                .description("Time spent in a single conversion hop")
+                .tags(sample.tags)
+                .tag("outcome", failure == null ? "success" : "failure")
+                .publishPercentileHistogram()
+                .register(meterRegistry)
+                .record(elapsed, TimeUnit.NANOSECONDS);
+        summary("toolbox.conversion.input", sample.tags).record(sample.inputBytes);
+        if (failure != null) {
+            Counter.builder("toolbox.conversion.errors")
+                    .tags(sample.tags)
+                    .tag("exception", failure.getClass().getSimpleName())
+                    .register(meterRegistry)
+                    .increment();
+            log.warn("Conversion failed {}", sample.tags, failure);
+            return;
+        }
+        summary("toolbox.conversion.output", sample.tags).record(sample.outputBytes);
+        if (sample.pages > 0) {
+            DistributionSummary.builder("toolbox.conversion.pages")
+                    .tags(sample.tags)
+                    .register(meterRegistry)
+                    .record(sample.pages);
+        }
+    }
+
+    private DistributionSummary summary(String name, Tags tags) {
+        return DistributionSummary.builder(name)
+                .baseUnit("bytes")
+                .tags(tags)
+                .register(meterRegistry);
+    }
+
+    private AtomicInteger activeCounter(String converter) {
+        return active.computeIfAbsent(converter, name -> {
+            AtomicInteger count = new AtomicInteger();
+            Gauge.builder("toolbox.conversions.active", count, AtomicInteger::get)
+                    .description("Conversions currently running")
+                    .tag("converter", name)
+                    .register(meterRegistry);
+            return count;
+        });
+    }
+
+    private static class Sample {
+        final Tags tags;
+        final AtomicInteger active;
+        final long inputBytes;
+        final long startNanos = System.nanoTime();
+        long outputBytes;
+        int pages;
+        Throwable failure;
+
+        Sample(Tags tags, AtomicInteger active, long inputBytes) {
+            this.tags = tags;
+            this.active = active;
+            this.inputBytes = inputBytes;
+        }
+    }
+
+    private static class CountingOutputStream extends FilterOutputStream {
+        long count;
+
+        CountingOutputStream(OutputStream out) {
+            super(out);
+        }
+
+        @Override
+        public void write(int b) throws IOException {
+            out.write(b);
+            count++;
+        }
+
+        @Override
+        public void write(byte[] b, int off, int len) throws IOException {
+            out.write(b, off, len);
+            count += len;
+        }
+    }
+}
@@ -0,0 +1,147 @@
+package com.toolbox.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.stereotype.Service;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+import java.util.PriorityQueue;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Index of which converter handles which (source, target) pair, built once
+ * from the {@link ConversionService} beans at startup.
+ *
+ * Converters only answer {@link ConversionService#supports}, so the index is
+ * built by probing every pair of known formats. Pairs without a direct
+ * converter are planned as the cheapest chain of hops (e.g. txt -> pdf -> png).
+ */
+@Service
+public class ConversionRegistry {
+
+    static final List<String> KNOWN_FORMATS = List.of(
+            "pdf", "txt", "docx", "doc", "xlsx", "xls", "pptx", "ppt", "png", "jpg", "jpeg", "ico");
+
+    // Longer chains lose too much fidelity to be worth it
+    private static final int MAX_HOPS = 3;
+
+    @Autowired
+    private List<ConversionService> conversionServices;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
+
+    // source -> target -> converter; first matching bean wins, like the old findFirst()
+    private final Map<String, Map<String, ConversionService>> edges = new HashMap<>();
+    private final Map<String, Optional<ConversionRoute>> routes = new ConcurrentHashMap<>();
+
+    @PostConstruct
+    void buildIndex() {
+        for (String source : KNOWN_FORMATS) {
+            Map<String, ConversionService> targets = new LinkedHashMap<>();
+            for (String target : KNOWN_FORMATS) {
+                if (source.equals(target)) {
+                    continue;
+                }
+                for (ConversionService service : conversionServices) {
+                    if (service.supports(source, target)) {
+                        targets.put(target, service);
+                        break;
+                    }
+                }
+            }
+            edges.put(source, targets);
+        }
+    }
+
+    /** The converter that handles {@code source -> target} in one step, if any. */
+    public Optional<ConversionService> direct(String sourceFormat, String targetFormat) {
+        Map<String, ConversionService> targets = edges.get(sourceFormat.toLowerCase());
+        if (targets == null) {
+            // Not a format we probed for; fall back to asking the converters
+            return conversionServices.stream().filter(s -> s.supports(sourceFormat, targetFormat)).findFirst();
+        }
+        return Optional.ofNullable(targets.get(targetFormat.toLowerCase()));
+    }
+
+    /**
+     * The cheapest route from {@code source} to {@code target}. A direct converter
+     * always wins; otherwise the planned route is cached per format pair.
+     *
+     * @throws IllegalArgumentException if no route exists
+     */
+    public ConversionRoute route(String sourceFormat, String targetFormat) {
+        String source = sourceFormat.toLowerCase();
+        String target = targetFormat.toLowerCase();
+        Optional<ConversionService> direct = direct(source, target);
+        if (direct.isPresent()) {
+            ConversionService service = direct.get();
+            return new ConversionRoute(List.of(new ConversionRoute.Hop(source, target, service)),
+                    service.cost(source, target), conversionMetrics);
+        }
+        return routes.computeIfAbsent(source + "->" + target, k -> plan(source, target))
+                .orElseThrow(() -> new IllegalArgumentException("No converter found for " + sourceFormat + " to " + targetFormat));
+    }
+
+    /** Every target format reachable from {@code source}, directly or via a route. */
+    public List<String> targetsFor(String sourceFormat) {
+        List<String> reachable = new ArrayList<>();
+        for (String target : KNOWN_FORMATS) {
+            if (!target.equalsIgnoreCase(sourceFormat)
+                    && (direct(sourceFormat, target).isPresent() || plan(sourceFormat.toLowerCase(), target).isPresent())) {
+                reachable.add(target);
+            }
+        }
+        return reachable;
+    }
+
+    // Dijkstra over the format graph, bounded by MAX_HOPS
+    private Optional<ConversionRoute> plan(String source, String target) {
+        if (!edges.containsKey(source)) {
+            return Optional.empty();
+        }
+        PriorityQueue<Path> queue = new PriorityQueue<>((a, b) -> Integer.compare(a.cost, b.cost));
+        Map<String, Integer> best = new HashMap<>();
+        queue.add(new Path(source, 0, Collections.emptyList()));
+        best.put(source, 0);
+
+        while (!queue.isEmpty()) {
+            Path path = queue.poll();
+            if (path.format.equals(target)) {
+                return Optional.of(new ConversionRoute(path.hops, path.cost, conversionMetrics));
+            }
+            if (path.cost > best.getOrDefault(path.format, Integer.MAX_VALUE) || path.hops.size() == MAX_HOPS) {
+                continue;
+            }
+            for (Map.Entry<String, ConversionService> edge : edges.getOrDefault(path.format, Map.of()).entrySet()) {
+                String next = edge.getKey();
+                int cost = path.cost + edge.getValue().cost(path.format, next);
+                if (cost < best.getOrDefault(next, Integer.MAX_VALUE)) {
+                    best.put(next, cost);
+                    List<ConversionRoute.Hop> hops = new ArrayList<>(path.hops);
+                    hops.add(new ConversionRoute.Hop(path.format, next, edge.getValue()));
+                    queue.add(new Path(next, cost, hops));
+                }
+            }
+        }
+        return Optional.empty();
+    }
+
+    private static class Path {
+        final String format;
+        final int cost;
+        final List<ConversionRoute.Hop> hops;
+
+        Path(String format, int cost, List<ConversionRoute.Hop> hops) {
+            this.format = format;
+            this.cost = cost;
+            this.hops = hops;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package com.toolbox.service;
+
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.StandardCopyOption;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HexFormat;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.TreeMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Content-addressed cache of conversion results on local disk. Entries are
+ * keyed by the hash of the input bytes plus the target format and options, and
+ * evicted least-recently-used once the cache grows past its byte budget.
+ *
+ * Jobs hand cached files out as their result, so an entry a job still holds
+ * is pinned ({@link #acquire}, {@link #put(String, File)}) and only evicted
+ * once every holder has {@link #release released} it. Pinned entries can keep
+ * the cache over budget for as long as their jobs live.
+ */
+@Service
+public class ConversionResultCache {
+
+    @Value("${toolbox.cache.enabled:true}")
+    private boolean enabled;
+
+    @Value("${toolbox.cache.dir:${java.io.tmpdir}/toolbox-cache}")
+    private String cacheDir;
+
+    @Value("${toolbox.cache.max-bytes:536870912}")
+    private long maxBytes;
+
+    // Suffix of results still being written; never valid entries
+    private static final String PARTIAL_SUFFIX = ".part";
+
+    private Path root;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, Long> entries = new LinkedHashMap<>(16, 0.75f, true);
+    private long totalBytes;
+    // Key -> number of holders; entries in here are never evicted
+    private final Map<String, Integer> pins = new HashMap<>();
+
+    private final AtomicLong hits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+    private final AtomicLong evictions = new AtomicLong();
+
+    @PostConstruct
+    void init() throws IOException {
+        root = Paths.get(cacheDir).toAbsolutePath();
+        Files.createDirectories(root);
+        // Pick up whatever survived a restart, oldest first so it is evicted first
+        try (Stream<Path> files = Files.list(root)) {
+            files.filter(Files::isRegularFile)
+                 .sorted(Comparator.comparingLong(p -> p.toFile().lastModified()))
+                 .forEach(p -> {
+                     if (p.getFileName().toString().endsWith(PARTIAL_SUFFIX)) {
+                         // Half written when the process died
+                         p.toFile().delete();
+                         return;
+                     }
+                     long size = p.toFile().length();
+                     entries.put(p.getFileName().toString(), size);
+                     totalBytes += size;
+                 });
+        }
+        evictToBudget();
+    }
+
+    /**
+     * Builds the cache key for an input hash, a target format and any options
+     * that change the output. Options are sorted so their order doesn't matter.
+     */
+    public String key(String inputSha256, String targetFormat, Map<String, String> options) {
+        StringBuilder sb = new StringBuilder(inputSha256).append('|').append(targetFormat.toLowerCase());
+        new TreeMap<>(options).forEach((name, value) -> sb.append('|').append(name).append('=').append(value));
+        try {
+            byte[] hash = MessageDigest.getInstance("SHA-256").digest(sb.toString().getBytes(StandardCharsets.UTF_8));
+            return HexFormat.of().formatHex(hash);
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    public Optional<File> get(String key) {
+        if (!enabled) {
+            return Optional.empty();
+        }
+        synchronized (this) {
+            if (entries.get(key) != null) {
+                Path path = root.resolve(key);
+                if (Files.exists(path)) {
+                    hits.incrementAndGet();
+                    return Optional.of(path.toFile());
+                }
+                // Someone cleaned the directory under us
+                totalBytes -= entries.remove(key);
+            }
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    /**
+     * Like {@link #get}, but pins the entry so it stays on disk until the
+     * returned file is {@link #release released}.
+     */
+    public synchronized Optional<File> acquire(String key) {
+        Optional<File> cached = get(key);
+        cached.ifPresent(file -> pins.merge(key, 1, Integer::sum));
+        return cached;
+    }
+
+    /**
+     * Moves a freshly converted result into the cache and returns the cached
+     * file, pinned for the caller like {@link #acquire}. If the cache is
+     * disabled or the result is too big to keep, the original file is returned
+     * untouched (and releasing it does nothing).
+     */
+    public File put(String key, File result) throws IOException {
+        long size = result.length();
+        if (!enabled || size > maxBytes) {
+            return result;
+        }
+        Path target = root.resolve(key);
+        Files.move(result.toPath(), target, StandardCopyOption.REPLACE_EXISTING);
+        synchronized (this) {
+            Long previous = entries.put(key, size);
+            totalBytes += size - (previous != null ? previous : 0);
+            pins.merge(key, 1, Integer::sum);
+            evictToBudget();
+        }
+        return target.toFile();
+    }
+
+    /**
+     * Stores a result that was streamed to the client and captured in memory
+     * on the way.
+     */
+    public void put(String key, byte[] result) throws IOException {
+        if (!enabled || result.length > maxBytes) {
+            return;
+        }
+        Path target = root.resolve(key);
+        // Unique per writer: two streams of the same input can finish at the same time
+        Path partial = Files.createTempFile(root, key, PARTIAL_SUFFIX);
+        try {
+            Files.write(partial, result);
+            Files.move(partial, target, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+        } catch (IOException e) {
+            Files.deleteIfExists(partial);
+            throw e;
+        }
+        synchronized (this) {
+            Long previous = entries.put(key, (long) result.length);
+            totalBytes += result.length - (previous != null ? previous : 0);
+            evictToBudget();
+        }
+    }
+
+    /** Unpins a file handed out by {@link #acquire} or {@link #put(String, File)}. */
+    public void release(File file) {
+        if (!owns(file)) {
+            return;
+        }
+        String key = file.getName();
+        synchronized (this) {
+            if (pins.computeIfPresent(key, (k, holders) -> holders > 1 ? holders - 1 : null) == null) {
+                // Last holder gone; it may have been all that kept the cache over budget
+                evictToBudget();
+            }
+        }
+    }
+
+    /** Whether {@code file} is managed by the cache (and so must not be deleted by callers). */
+    public boolean owns(File file) {
+        return file != null && file.toPath().toAbsolutePath().startsWith(root);
+    }
+
+    private synchronized void evictToBudget() {
+        Iterator<Map.Entry<String, Long>> it = entries.entrySet().iterator();
+        while (totalBytes > maxBytes && it.hasNext()) {
+            Map.Entry<String, Long> eldest = it.next();
+            if (pins.containsKey(eldest.getKey())) {
+                // Still some job's result; skip it, the next one may do
+                continue;
+            }
+            it.remove();
+            totalBytes -= eldest.getValue();
+            evictions.incrementAndGet();
+            try {
+                Files.deleteIfExists(root.resolve(eldest.getKey()));
+            } catch (IOException ignored) {
+                // Already gone or still open on Windows; either way it's out of the index
+            }
+        }
+    }
+
+    public long getHits() {
+        return hits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public long getEvictions() {
+        return evictions.get();
+    }
+
+    public synchronized long getSizeBytes() {
+        return totalBytes;
+    }
+
+    public synchronized int getEntryCount() {
+        return entries.size();
+    }
+}
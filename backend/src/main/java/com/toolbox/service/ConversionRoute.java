@@ -0,0 +1,127 @@
+package com.toolbox.service;
+
+import com.toolbox.util.InMemoryMultipartFile;
+import com.toolbox.util.PageRanges;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.util.List;
+
+/**
+ * An ordered chain of conversions from a source format to a target format.
+ * A direct conversion is a route with a single hop.
+ */
+public class ConversionRoute {
+
+    public static class Hop {
+        private final String sourceFormat;
+        private final String targetFormat;
+        private final ConversionService service;
+
+        Hop(String sourceFormat, String targetFormat, ConversionService service) {
+            this.sourceFormat = sourceFormat;
+            this.targetFormat = targetFormat;
+            this.service = service;
+        }
+
+        public String getSourceFormat() {
+            return sourceFormat;
+        }
+
+        public String getTargetFormat() {
+            return targetFormat;
+        }
+
+        public ConversionService getService() {
+            return service;
+        }
+    }
+
+    private final List<Hop> hops;
+    private final int cost;
+    private final ConversionMetrics metrics;
+
+    ConversionRoute(List<Hop> hops, int cost, ConversionMetrics metrics) {
+        this.hops = List.copyOf(hops);
+        this.cost = cost;
+        this.metrics = metrics;
+    }
+
+    public List<Hop> getHops() {
+        return hops;
+    }
+
+    public int getCost() {
+        return cost;
+    }
+
+    public Hop getLastHop() {
+        return hops.get(hops.size() - 1);
+    }
+
+    /** Whether the final hop can write its result straight to a stream. */
+    public boolean isStreaming() {
+        return getLastHop().getService() instanceof StreamingConversionService;
+    }
+
+    /** Whether the first hop, the one that reads the user's document, takes a page selection. */
+    public boolean supportsPageSelection() {
+        return hops.get(0).getService().supportsPageSelection();
+    }
+
+    /** How many pages the first hop accepts in a selection; see {@link ConversionService#maxSelectedPages()}. */
+    public int getMaxSelectedPages() {
+        return hops.get(0).getService().maxSelectedPages();
+    }
+
+    /**
+     * Runs every hop. Intermediate results are kept in memory and handed to the
+     * next hop as an in-memory upload; only the final hop produces a file. The
+     * page selection applies to the first hop, later hops see only what it
+     * produced.
+     */
+    public File execute(MultipartFile input, PageRanges pages) throws IOException {
+        Hop last = getLastHop();
+        MultipartFile lastInput = runIntermediateHops(input, pages);
+        PageRanges lastPages = hops.size() == 1 ? pages : PageRanges.all();
+        return metrics.recordFile(last.getSourceFormat(), last.getTargetFormat(), last.getService(), lastInput,
+                () -> last.getService().convert(lastInput, last.getTargetFormat(), lastPages));
+    }
+
+    /** Runs every hop, writing the final result to {@code out}. */
+    public void execute(MultipartFile input, PageRanges pages, OutputStream out) throws IOException {
+        Hop last = getLastHop();
+        MultipartFile lastInput = runIntermediateHops(input, pages);
+        PageRanges lastPages = hops.size() == 1 ? pages : PageRanges.all();
+        metrics.recordStreamed(last.getSourceFormat(), last.getTargetFormat(), last.getService(), lastInput, out,
+                counted -> last.getService().convert(lastInput, last.getTargetFormat(), lastPages, counted));
+    }
+
+    private MultipartFile runIntermediateHops(MultipartFile input, PageRanges pages) throws IOException {
+        MultipartFile current = input;
+        for (int i = 0; i < hops.size() - 1; i++) {
+            Hop hop = hops.get(i);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            MultipartFile hopInput = current;
+            PageRanges hopPages = i == 0 ? pages : PageRanges.all();
+            metrics.recordStreamed(hop.getSourceFormat(), hop.getTargetFormat(), hop.getService(), hopInput, out,
+                    counted -> hop.getService().convert(hopInput, hop.getTargetFormat(), hopPages, counted));
+            // Converters dispatch on the file extension, so name the intermediate after its format
+            current = new InMemoryMultipartFile("intermediate." + hop.getTargetFormat(), out.toByteArray());
+        }
+        return current;
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder(hops.get(0).getSourceFormat());
+        for (Hop hop : hops) {
+            sb.append(" -> ").append(hop.getTargetFormat())
+              .append(" (").append(hop.getService().getClass().getSimpleName()).append(')');
+        }
+        return sb.toString();
+    }
+}
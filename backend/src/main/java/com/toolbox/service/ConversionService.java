@@ -1,10 +1,65 @@
 package com.toolbox.service;
 
+import com.toolbox.util.PageRanges;
 import org.springframework.web.multipart.MultipartFile;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
 
 public interface ConversionService {
     File convert(MultipartFile file, String targetFormat) throws IOException;
     boolean supports(String sourceFormat, String targetFormat);
+
+    /**
+     * Writes the converted result to {@code out} instead of a file. Used to hand
+     * intermediate results between hops of a multi-hop route. The default goes
+     * through {@link #convert(MultipartFile, String)}; converters that can write
+     * straight to a stream should override it.
+     */
+    default void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        File result = convert(file, targetFormat);
+        try {
+            Files.copy(result.toPath(), out);
+        } finally {
+            result.delete();
+        }
+    }
+
+    /**
+     * Relative cost of one conversion, used to pick the cheapest multi-hop route.
+     * Converters that rasterize every page should report more than 1.
+     */
+    default int cost(String sourceFormat, String targetFormat) {
+        return 1;
+    }
+
+    /**
+     * Whether this converter can work on a subset of the source's pages. Only
+     * converters that do are handed a selection other than
+     * {@link PageRanges#all()}.
+     */
+    default boolean supportsPageSelection() {
+        return false;
+    }
+
+    /**
+     * Most pages a selection may name, for converters whose output holds a
+     * fixed number of pages (one image). Larger selections are rejected before
+     * the conversion starts rather than quietly cut short.
+     */
+    default int maxSelectedPages() {
+        return Integer.MAX_VALUE;
+    }
+
+    /** Converts only the selected pages; see {@link #supportsPageSelection()}. */
+    default File convert(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        return convert(file, targetFormat);
+    }
+
+    /** Streaming form of {@link #convert(MultipartFile, String, PageRanges)}. */
+    default void convert(MultipartFile file, String targetFormat, PageRanges pages, OutputStream out)
+            throws IOException {
+        convert(file, targetFormat, out);
+    }
 }
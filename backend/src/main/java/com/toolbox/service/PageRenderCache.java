@@ -0,0 +1,105 @@
+package com.toolbox.service;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.NoSuchFileException;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Rendered page previews, keyed by document hash, page, pixel width and
+ * colour mode. Recently used images stay on the heap (LRU, bounded by bytes);
+ * everything is also written to the {@link ConversionResultCache}, so a
+ * preview that fell out of memory, or survived a restart, is read back from
+ * disk instead of being rendered again.
+ */
+@Service
+public class PageRenderCache {
+
+    @Autowired
+    private ConversionResultCache resultCache;
+
+    @Value("${toolbox.preview.memory-bytes:33554432}")
+    private long memoryBytes;
+
+    // Access-ordered, so iteration starts at the least recently used entry
+    private final LinkedHashMap<String, byte[]> memory = new LinkedHashMap<>(16, 0.75f, true);
+    private long memoryUsed;
+
+    private final AtomicLong memoryHits = new AtomicLong();
+    private final AtomicLong diskHits = new AtomicLong();
+    private final AtomicLong misses = new AtomicLong();
+
+    public String key(String documentSha256, int pageIndex, int width, boolean gray) {
+        Map<String, String> options = Map.of(
+                "page", String.valueOf(pageIndex),
+                "width", String.valueOf(width),
+                "color", gray ? "gray" : "rgb");
+        return resultCache.key(documentSha256, "preview.png", options);
+    }
+
+    public Optional<byte[]> get(String key) throws IOException {
+        synchronized (this) {
+            byte[] image = memory.get(key);
+            if (image != null) {
+                memoryHits.incrementAndGet();
+                return Optional.of(image);
+            }
+        }
+        Optional<File> stored = resultCache.get(key);
+        if (stored.isPresent()) {
+            try {
+                byte[] image = Files.readAllBytes(stored.get().toPath());
+                remember(key, image);
+                diskHits.incrementAndGet();
+                return Optional.of(image);
+            } catch (NoSuchFileException e) {
+                // Evicted between the lookup and the read; treat it as a miss
+            }
+        }
+        misses.incrementAndGet();
+        return Optional.empty();
+    }
+
+    public void put(String key, byte[] image) throws IOException {
+        remember(key, image);
+        resultCache.put(key, image);
+    }
+
+    private synchronized void remember(String key, byte[] image) {
+        if (image.length > memoryBytes) {
+            return;
+        }
+        byte[] previous = memory.put(key, image);
+        memoryUsed += image.length - (previous != null ? previous.length : 0);
+        Iterator<Map.Entry<String, byte[]>> it = memory.entrySet().iterator();
+        while (memoryUsed > memoryBytes && it.hasNext()) {
+            memoryUsed -= it.next().getValue().length;
+            it.remove();
+        }
+    }
+
+    public long getMemoryHits() {
+        return memoryHits.get();
+    }
+
+    public long getDiskHits() {
+        return diskHits.get();
+    }
+
+    public long getMisses() {
+        return misses.get();
+    }
+
+    public synchronized long getMemoryBytes() {
+        return memoryUsed;
+    }
+}
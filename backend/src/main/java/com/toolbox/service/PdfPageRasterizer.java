@@ -0,0 +1,244 @@
+package com.toolbox.service;
+
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.InMemoryMultipartFile;
+import com.toolbox.util.PageRanges;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.LinkedBlockingQueue;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Renders PDF pages to encoded images on the shared render pool.
+ *
+ * PDFBox documents are not thread-safe, so every task borrows a
+ * {@link PDDocument} that no other task is using at the time; at most one
+ * handle per concurrently running task is ever opened. The number of pages
+ * rendered but not yet consumed is capped, so memory is bounded by the
+ * concurrency setting and not by the page count.
+ */
+@Service
+public class PdfPageRasterizer {
+
+    @Autowired
+    @Qualifier("pageRenderPool")
+    private ForkJoinPool renderPool;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
+
+    @Value("${toolbox.render.max-in-flight:0}")
+    private int maxInFlight;
+
+    public static class RenderedPage {
+        private final int pageIndex;
+        private final byte[] data;
+        private final int width;
+        private final int height;
+
+        RenderedPage(int pageIndex, byte[] data, int width, int height) {
+            this.pageIndex = pageIndex;
+            this.data = data;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getPageIndex() {
+            return pageIndex;
+        }
+
+        public byte[] getData() {
+            return data;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    @FunctionalInterface
+    public interface PageSink {
+        void accept(RenderedPage page) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface DocumentLoader {
+        PDDocument load() throws IOException;
+    }
+
+    /**
+     * Same as {@link #render(File, PageRanges, float, ImageType, String, boolean, PageSink)}
+     * for an upload. Render workers need random access to the PDF, so the upload
+     * is spooled to a file unless it already lives in one (or in memory, as the
+     * intermediate of a multi-hop route does).
+     */
+    public int render(MultipartFile pdf, PageRanges pages, float dpi, ImageType imageType, String formatName,
+                      boolean inOrder, PageSink sink) throws IOException {
+        if (pdf instanceof ConversionInput) {
+            File source = ((ConversionInput) pdf).getPath().toFile();
+            return render(() -> PDDocument.load(source), pages, dpi, imageType, formatName, inOrder, sink);
+        }
+        if (pdf instanceof InMemoryMultipartFile) {
+            byte[] bytes = pdf.getBytes();
+            return render(() -> PDDocument.load(bytes), pages, dpi, imageType, formatName, inOrder, sink);
+        }
+        ConversionInput spooled = ConversionInput.spool(pdf, scratchStorage.current());
+        try {
+            File source = spooled.getPath().toFile();
+            return render(() -> PDDocument.load(source), pages, dpi, imageType, formatName, inOrder, sink);
+        } finally {
+            spooled.delete();
+        }
+    }
+
+    /**
+     * Renders the selected pages of {@code pdf} and hands each encoded page to
+     * {@code sink} on the calling thread.
+     *
+     * @param formatName ImageIO format name ("png", "jpeg")
+     * @param inOrder    deliver pages in page order; otherwise as soon as they finish
+     * @return the number of pages rendered
+     */
+    public int render(File pdf, PageRanges pages, float dpi, ImageType imageType, String formatName,
+                      boolean inOrder, PageSink sink) throws IOException {
+        return render(() -> PDDocument.load(pdf), pages, dpi, imageType, formatName, inOrder, sink);
+    }
+
+    private int render(DocumentLoader loader, PageRanges pages, float dpi, ImageType imageType, String formatName,
+                       boolean inOrder, PageSink sink) throws IOException {
+        Queue<PDDocument> handles = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<RenderedPage>> submitted = new ArrayList<>();
+        AtomicBoolean aborted = new AtomicBoolean();
+
+        // The handle we open to count pages goes straight into the pool for reuse
+        PDDocument first = loader.load();
+        handles.add(first);
+        try {
+            int pageCount = first.getNumberOfPages();
+            int[] selected = pages.resolve(pageCount);
+            if (selected.length == 0) {
+                throw new IllegalArgumentException("No pages selected, document has " + pageCount + " pages");
+            }
+            conversionMetrics.recordPages(selected.length);
+
+            int window = maxInFlight > 0 ? maxInFlight : renderPool.getParallelism() * 2;
+            Deque<CompletableFuture<RenderedPage>> pending = new ArrayDeque<>();
+            BlockingQueue<CompletableFuture<RenderedPage>> finished = new LinkedBlockingQueue<>();
+            int next = 0;
+            for (int delivered = 0; delivered < selected.length; delivered++) {
+                while (next < selected.length && pending.size() < window) {
+                    int pageIndex = selected[next++];
+                    CompletableFuture<RenderedPage> future = CompletableFuture.supplyAsync(() -> {
+                        if (aborted.get()) {
+                            return null;
+                        }
+                        try {
+                            return renderPage(loader, handles, pageIndex, dpi, imageType, formatName);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, renderPool);
+                    if (!inOrder) {
+                        future.whenComplete((page, error) -> finished.add(future));
+                    }
+                    submitted.add(future);
+                    pending.addLast(future);
+                }
+
+                CompletableFuture<RenderedPage> ready = inOrder ? pending.peekFirst() : takeFinished(finished);
+                pending.remove(ready);
+                sink.accept(await(ready));
+            }
+            return selected.length;
+        } finally {
+            aborted.set(true);
+            // Tasks that already started still hold a handle; let them finish before closing
+            for (CompletableFuture<RenderedPage> future : submitted) {
+                try {
+                    future.join();
+                } catch (RuntimeException ignored) {
+                    // Failure was already reported through await()
+                }
+            }
+            for (PDDocument handle : handles) {
+                handle.close();
+            }
+        }
+    }
+
+    private RenderedPage renderPage(DocumentLoader loader, Queue<PDDocument> handles, int pageIndex, float dpi,
+                                    ImageType imageType, String formatName) throws IOException {
+        PDDocument document = handles.poll();
+        if (document == null) {
+            document = loader.load();
+        }
+        try {
+            BufferedImage image = new PDFRenderer(document).renderImageWithDPI(pageIndex, dpi, imageType);
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, formatName, out);
+            return new RenderedPage(pageIndex, out.toByteArray(), image.getWidth(), image.getHeight());
+        } finally {
+            handles.add(document);
+        }
+    }
+
+    private static CompletableFuture<RenderedPage> takeFinished(BlockingQueue<CompletableFuture<RenderedPage>> finished)
+            throws IOException {
+        try {
+            return finished.take();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for rendered pages");
+        }
+    }
+
+    private static RenderedPage await(CompletableFuture<RenderedPage> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for rendered pages");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Page rendering failed", cause);
+        }
+    }
+}
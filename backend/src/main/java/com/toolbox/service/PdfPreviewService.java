@@ -0,0 +1,138 @@
+package com.toolbox.service;
+
+import com.toolbox.service.admission.ConversionAdmission;
+import com.toolbox.util.ConversionInput;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.common.PDRectangle;
+import org.apache.pdfbox.rendering.ImageType;
+import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.Optional;
+import java.util.concurrent.atomic.AtomicReference;
+
+/**
+ * Page thumbnails for the UI. Each page is rendered at exactly the scale
+ * that makes it {@code width} pixels wide (instead of a fixed DPI and a
+ * resize), and the PNG is cached by document hash, page, width and colour
+ * mode, so scrolling back and forth through a document renders every page
+ * once. The document itself is uploaded once and kept in the
+ * {@link PreviewDocumentStore}; later pages are asked for by its hash.
+ */
+@Service
+public class PdfPreviewService {
+
+    // A preview only ever renders one page
+    private static final long PREVIEW_COST = 1;
+
+    @Autowired
+    private PageRenderCache pageRenderCache;
+
+    @Autowired
+    private PreviewDocumentStore previewDocumentStore;
+
+    @Autowired
+    private ConversionAdmission conversionAdmission;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
+
+    @Value("${toolbox.preview.max-width:2048}")
+    private int maxWidth;
+
+    // Guards against very tall pages (posters, receipts) at large widths
+    @Value("${toolbox.preview.max-pixels:16777216}")
+    private long maxPixels;
+
+    /**
+     * Returns the page as a PNG {@code width} pixels wide, from the cache if
+     * it has been rendered before.
+     *
+     * @param pageIndex 0-based page index
+     * @throws IllegalArgumentException if the page doesn't exist or the size is out of range
+     */
+    public byte[] preview(ConversionInput pdf, int pageIndex, int width, boolean gray) throws IOException {
+        checkSize(pageIndex, width);
+        String key = pageRenderCache.key(pdf.getSha256(), pageIndex, width, gray);
+        Optional<byte[]> cached = pageRenderCache.get(key);
+        if (cached.isPresent()) {
+            return cached.get();
+        }
+        return renderAndCache(key, pdf, pageIndex, width, gray);
+    }
+
+    /**
+     * Same as {@link #preview(ConversionInput, int, int, boolean)} for a
+     * document uploaded earlier, by its SHA-256. Empty if the page isn't
+     * cached and the document is no longer kept (the client uploads it again).
+     */
+    public Optional<byte[]> preview(String documentSha256, int pageIndex, int width, boolean gray)
+            throws IOException {
+        checkSize(pageIndex, width);
+        String key = pageRenderCache.key(documentSha256, pageIndex, width, gray);
+        Optional<byte[]> cached = pageRenderCache.get(key);
+        if (cached.isPresent()) {
+            return cached;
+        }
+        Optional<ConversionInput> pdf = previewDocumentStore.acquire(documentSha256);
+        if (pdf.isEmpty()) {
+            return Optional.empty();
+        }
+        try {
+            return Optional.of(renderAndCache(key, pdf.get(), pageIndex, width, gray));
+        } finally {
+            previewDocumentStore.release(documentSha256);
+        }
+    }
+
+    private void checkSize(int pageIndex, int width) {
+        if (pageIndex < 0 || width < 1 || width > maxWidth) {
+            throw new IllegalArgumentException("Invalid page " + (pageIndex + 1) + " or width " + width);
+        }
+    }
+
+    private byte[] renderAndCache(String key, ConversionInput pdf, int pageIndex, int width, boolean gray)
+            throws IOException {
+        conversionAdmission.checkCapacity();
+        AtomicReference<byte[]> rendered = new AtomicReference<>();
+        conversionAdmission.run(PREVIEW_COST, () -> rendered.set(render(pdf, pageIndex, width, gray)));
+        pageRenderCache.put(key, rendered.get());
+        return rendered.get();
+    }
+
+    private byte[] render(ConversionInput pdf, int pageIndex, int width, boolean gray) throws IOException {
+        try (PDDocument document = PDDocument.load(pdf.getPath().toFile())) {
+            if (pageIndex >= document.getNumberOfPages()) {
+                throw new IllegalArgumentException("Page " + (pageIndex + 1) + " requested, document has "
+                        + document.getNumberOfPages() + " pages");
+            }
+            // PDFRenderer draws the crop box, turned by the page rotation
+            PDPage page = document.getPage(pageIndex);
+            PDRectangle box = page.getCropBox();
+            boolean sideways = page.getRotation() % 180 != 0;
+            float pageWidth = sideways ? box.getHeight() : box.getWidth();
+            float pageHeight = sideways ? box.getWidth() : box.getHeight();
+
+            // The renderer floors the scaled size, so aim half a pixel over to land on width exactly
+            float scale = (width + 0.5f) / pageWidth;
+            if ((long) width * (long) Math.ceil(pageHeight * scale) > maxPixels) {
+                throw new IllegalArgumentException("Preview of page " + (pageIndex + 1) + " at width " + width
+                        + " is too large");
+            }
+            BufferedImage image = new PDFRenderer(document)
+                    .renderImage(pageIndex, scale, gray ? ImageType.GRAY : ImageType.RGB);
+            conversionMetrics.recordPages(1);
+
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        }
+    }
+}
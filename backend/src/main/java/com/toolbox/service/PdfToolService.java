@@ -1,30 +1,116 @@
 package com.toolbox.service;
 
-
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.PageRanges;
+import org.apache.pdfbox.io.MemoryUsageSetting;
 import org.apache.pdfbox.multipdf.PDFMergerUtility;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.rendering.ImageType;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
-import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.util.List;
+import java.util.zip.CRC32;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipOutputStream;
 
 @Service
 public class PdfToolService {
 
-    public File mergePdfs(List<MultipartFile> files) throws IOException {
+    @Autowired
+    private PdfPageRasterizer pdfPageRasterizer;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    // Main-memory budget per open document during a merge; the rest spills to scratch
+    @Value("${toolbox.merge.max-memory-bytes:67108864}")
+    private long mergeMemoryBytes;
+
+    /**
+     * Merges {@code sources} (optionally only the selected pages of each) and
+     * writes the result to {@code out}.
+     *
+     * Memory stays within the configured budget no matter how many or how large
+     * the inputs are: PDFBox spills anything over the budget to scratch files,
+     * only one source is open at a time (its pages are deep-copied into the
+     * destination, after which it is closed), and the merged document is
+     * written straight to the output stream.
+     *
+     * {@code selections} are matched to {@code sources} by position; sources
+     * past the last selection are merged whole.
+     *
+     * @throws IllegalArgumentException if there are more selections than sources
+     */
+    public void mergePdfs(List<File> sources, List<PageRanges> selections, OutputStream out) throws IOException {
+        if (selections.size() > sources.size()) {
+            throw new IllegalArgumentException("Got " + selections.size() + " page selections for "
+                    + sources.size() + " files");
+        }
         PDFMergerUtility merger = new PDFMergerUtility();
-        File outputFile = File.createTempFile("merged-", ".pdf");
-        merger.setDestinationFileName(outputFile.getAbsolutePath());
-
-        for (MultipartFile file : files) {
-            // We need to save temp files because PDFMergerUtility works best with files or streams
-            // But we can also use streams directly if we handle them carefully.
-            // Using strict mode to merge.
-            merger.addSource(file.getInputStream());
+        try (PDDocument destination = new PDDocument(mergeMemoryUsage())) {
+            for (int i = 0; i < sources.size(); i++) {
+                PageRanges selection = i < selections.size() ? selections.get(i) : PageRanges.all();
+                try (PDDocument source = PDDocument.load(sources.get(i), mergeMemoryUsage())) {
+                    if (!selection.isAll()) {
+                        keepOnly(source, selection);
+                    }
+                    merger.appendDocument(destination, source);
+                }
+            }
+            destination.save(out);
         }
+    }
+
+    private MemoryUsageSetting mergeMemoryUsage() throws IOException {
+        return scratchStorage.pdfMemoryUsage(mergeMemoryBytes);
+    }
+
+    // The source is a throwaway copy loaded just for this merge, so trimming it in place is fine
+    private static void keepOnly(PDDocument source, PageRanges selection) {
+        int pageCount = source.getNumberOfPages();
+        int[] keep = selection.resolve(pageCount);
+        if (keep.length == 0) {
+            throw new IllegalArgumentException("No pages selected, document has " + pageCount + " pages");
+        }
+        // Both run from the back, so removing a page never shifts one still to be checked
+        int next = keep.length - 1;
+        for (int page = pageCount - 1; page >= 0; page--) {
+            if (next >= 0 && keep[next] == page) {
+                next--;
+            } else {
+                source.removePage(page);
+            }
+        }
+    }
+
+    /**
+     * Renders the selected pages of a PDF and writes them into a ZIP on
+     * {@code out} as each one finishes, so only the pages in flight are ever
+     * held in memory.
+     */
+    public void renderPagesToZip(File pdf, PageRanges pages, String format, int dpi, OutputStream out) throws IOException {
+        boolean jpg = "jpg".equalsIgnoreCase(format) || "jpeg".equalsIgnoreCase(format);
+        String extension = jpg ? "jpg" : "png";
 
-        merger.mergeDocuments(null);
-        return outputFile;
+        ZipOutputStream zip = new ZipOutputStream(out);
+        pdfPageRasterizer.render(pdf, pages, dpi, jpg ? ImageType.RGB : ImageType.ARGB, jpg ? "jpeg" : "png", false, page -> {
+            // PNG/JPEG are already compressed, so store them instead of deflating again
+            CRC32 crc = new CRC32();
+            crc.update(page.getData());
+            ZipEntry entry = new ZipEntry(String.format("page-%04d.%s", page.getPageIndex() + 1, extension));
+            entry.setMethod(ZipEntry.STORED);
+            entry.setSize(page.getData().length);
+            entry.setCrc(crc.getValue());
+            zip.putNextEntry(entry);
+            zip.write(page.getData());
+            zip.closeEntry();
+            zip.flush();
+        });
+        zip.finish();
     }
 }
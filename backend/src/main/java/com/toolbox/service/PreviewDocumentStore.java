@@ -0,0 +1,170 @@
+package com.toolbox.service;
+
+import com.toolbox.service.scratch.ScratchSpace;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Optional;
+
+/**
+ * PDFs uploaded for previews, kept in scratch by content hash so the UI can
+ * ask for more pages ({@code GET /api/tools/preview/{id}/pages/{n}}) without
+ * sending the document again. Bounded by count and dropped after an idle TTL;
+ * a client whose document is gone gets a 404 and uploads it once more.
+ *
+ * A document being rendered is held ({@link #retain}, {@link #acquire}) and
+ * not evicted until every holder has {@link #release released} it, so its
+ * file can't be deleted under the renderer. Held documents can keep the store
+ * over its count for as long as they render.
+ */
+@Service
+public class PreviewDocumentStore {
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Value("${toolbox.preview.documents.max-count:32}")
+    private int maxCount;
+
+    @Value("${toolbox.preview.documents.ttl:PT30M}")
+    private Duration ttl;
+
+    private static class Entry {
+        final ConversionInput pdf;
+        final ScratchSpace space;
+        volatile Instant lastUsed = Instant.now();
+        // Renders in progress; guarded by the store
+        int holders = 1;
+
+        Entry(ConversionInput pdf, ScratchSpace space) {
+            this.pdf = pdf;
+            this.space = space;
+        }
+    }
+
+    // Access-ordered, so iteration starts at the least recently used document
+    private final LinkedHashMap<String, Entry> documents = new LinkedHashMap<>(16, 0.75f, true);
+
+    /**
+     * Spools {@code upload} and keeps it for later previews. If the same bytes
+     * are already kept, the new copy is dropped and the kept one returned.
+     * Either way the document is held for the caller until {@link #release}.
+     *
+     * @throws IllegalArgumentException if the upload isn't a PDF
+     */
+    public ConversionInput retain(MultipartFile upload) throws IOException {
+        ScratchSpace space = scratchStorage.open("preview");
+        ConversionInput pdf;
+        try {
+            pdf = ConversionInput.spool(upload, space);
+            if (!"pdf".equals(pdf.getFormat())) {
+                throw new IllegalArgumentException("Previews are only available for PDFs");
+            }
+        } catch (IOException | RuntimeException e) {
+            space.close();
+            throw e;
+        }
+
+        List<Entry> evicted = new ArrayList<>();
+        ConversionInput kept;
+        synchronized (this) {
+            Entry existing = documents.get(pdf.getSha256());
+            if (existing != null) {
+                existing.lastUsed = Instant.now();
+                existing.holders++;
+                kept = existing.pdf;
+            } else {
+                documents.put(pdf.getSha256(), new Entry(pdf, space));
+                kept = pdf;
+                evictOverflow(evicted);
+            }
+        }
+        if (kept != pdf) {
+            space.close();
+        }
+        close(evicted);
+        return kept;
+    }
+
+    /**
+     * The document kept under {@code sha256}, held for the caller until
+     * {@link #release}. Empty if it is no longer kept.
+     */
+    public synchronized Optional<ConversionInput> acquire(String sha256) {
+        Entry entry = documents.get(sha256);
+        if (entry == null) {
+            return Optional.empty();
+        }
+        entry.lastUsed = Instant.now();
+        entry.holders++;
+        return Optional.of(entry.pdf);
+    }
+
+    /** Lets go of a document handed out by {@link #retain} or {@link #acquire}. */
+    public void release(String sha256) {
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            // Held entries are never evicted, so it is still here
+            Entry entry = documents.get(sha256);
+            if (entry != null && entry.holders > 0) {
+                entry.holders--;
+                // It may have been all that kept the store over its count
+                evictOverflow(evicted);
+            }
+        }
+        close(evicted);
+    }
+
+    public synchronized int getCount() {
+        return documents.size();
+    }
+
+    @Scheduled(fixedDelayString = "${toolbox.preview.documents.sweep-interval-ms:60000}")
+    void evictIdle() {
+        Instant cutoff = Instant.now().minus(ttl);
+        List<Entry> evicted = new ArrayList<>();
+        synchronized (this) {
+            Iterator<Map.Entry<String, Entry>> it = documents.entrySet().iterator();
+            while (it.hasNext()) {
+                Entry entry = it.next().getValue();
+                if (entry.holders == 0 && entry.lastUsed.isBefore(cutoff)) {
+                    evicted.add(entry);
+                    it.remove();
+                }
+            }
+        }
+        close(evicted);
+    }
+
+    // Called with the lock held; least recently used first, skipping documents still being rendered
+    private void evictOverflow(List<Entry> evicted) {
+        Iterator<Entry> it = documents.values().iterator();
+        while (documents.size() > maxCount && it.hasNext()) {
+            Entry entry = it.next();
+            if (entry.holders == 0) {
+                evicted.add(entry);
+                it.remove();
+            }
+        }
+    }
+
+    // Outside the lock: closing deletes files
+    private static void close(List<Entry> evicted) {
+        for (Entry entry : evicted) {
+            entry.space.close();
+        }
+    }
+}
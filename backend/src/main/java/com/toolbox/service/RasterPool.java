@@ -0,0 +1,80 @@
+package com.toolbox.service;
+
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.awt.image.BufferedImage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Reusable RGB rasters for slide/page rendering, keyed by size. A deck
+ * renders every slide at the same size, so after the first few slides the
+ * render workers just take turns with the same handful of int[] buffers
+ * instead of allocating a new multi-megabyte one per slide.
+ *
+ * Idle rasters are capped by total bytes; when a new size needs room, the
+ * sizes used least recently are dropped first.
+ */
+@Service
+public class RasterPool {
+
+    @Value("${toolbox.render.raster-pool-bytes:67108864}")
+    private long maxIdleBytes;
+
+    // Access-ordered, so iteration starts at the least recently used size
+    private final Map<Long, Deque<BufferedImage>> idle = new LinkedHashMap<>(16, 0.75f, true);
+    private long idleBytes;
+
+    /** A raster of exactly this size. Contents are whatever the last user left; clear it before drawing. */
+    public BufferedImage acquire(int width, int height) {
+        synchronized (this) {
+            Deque<BufferedImage> free = idle.get(key(width, height));
+            if (free != null && !free.isEmpty()) {
+                BufferedImage image = free.pop();
+                idleBytes -= bytes(image);
+                return image;
+            }
+        }
+        return new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+    }
+
+    /** Hands a raster back. The caller must not touch it afterwards. */
+    public synchronized void release(BufferedImage image) {
+        long size = bytes(image);
+        if (size > maxIdleBytes) {
+            return;
+        }
+        long key = key(image.getWidth(), image.getHeight());
+        Iterator<Map.Entry<Long, Deque<BufferedImage>>> eldest = idle.entrySet().iterator();
+        while (idleBytes + size > maxIdleBytes && eldest.hasNext()) {
+            Map.Entry<Long, Deque<BufferedImage>> entry = eldest.next();
+            if (entry.getKey() == key) continue;
+            for (BufferedImage dropped : entry.getValue()) {
+                idleBytes -= bytes(dropped);
+            }
+            eldest.remove();
+        }
+        if (idleBytes + size > maxIdleBytes) {
+            // Pool is full of this size already; let the GC have this one
+            return;
+        }
+        idle.computeIfAbsent(key, k -> new ArrayDeque<>()).push(image);
+        idleBytes += size;
+    }
+
+    public synchronized long getIdleBytes() {
+        return idleBytes;
+    }
+
+    private static long key(int width, int height) {
+        return ((long) width << 32) | (height & 0xffffffffL);
+    }
+
+    private static long bytes(BufferedImage image) {
+        return (long) image.getWidth() * image.getHeight() * 4;
+    }
+}
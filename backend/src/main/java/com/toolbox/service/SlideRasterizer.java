@@ -0,0 +1,247 @@
+package com.toolbox.service;
+
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.InMemoryMultipartFile;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.IIOImage;
+import javax.imageio.ImageIO;
+import javax.imageio.ImageWriteParam;
+import javax.imageio.ImageWriter;
+import javax.imageio.stream.ImageOutputStream;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws PPTX slides to JPEG on the shared render pool, the slide show
+ * counterpart of {@link PdfPageRasterizer}.
+ *
+ * POI slide shows are not thread-safe either, so each task borrows an
+ * {@link XMLSlideShow} no other task is using, opening one only when all
+ * existing handles are busy. Slides are drawn into rasters from the
+ * {@link RasterPool} and encoded on the worker; the caller gets the JPEG
+ * bytes in slide order, with at most a window's worth waiting at once.
+ */
+@Service
+public class SlideRasterizer {
+
+    // Same quality JPEGFactory.createFromImage used to encode slides with
+    private static final float JPEG_QUALITY = 0.75f;
+
+    @Autowired
+    @Qualifier("pageRenderPool")
+    private ForkJoinPool renderPool;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private RasterPool rasterPool;
+
+    @Value("${toolbox.render.max-in-flight:0}")
+    private int maxInFlight;
+
+    public static class RenderedSlide {
+        private final int slideIndex;
+        private final byte[] jpeg;
+        private final int width;
+        private final int height;
+
+        RenderedSlide(int slideIndex, byte[] jpeg, int width, int height) {
+            this.slideIndex = slideIndex;
+            this.jpeg = jpeg;
+            this.width = width;
+            this.height = height;
+        }
+
+        public int getSlideIndex() {
+            return slideIndex;
+        }
+
+        public byte[] getJpeg() {
+            return jpeg;
+        }
+
+        public int getWidth() {
+            return width;
+        }
+
+        public int getHeight() {
+            return height;
+        }
+    }
+
+    @FunctionalInterface
+    public interface SlideSink {
+        void accept(RenderedSlide slide) throws IOException;
+    }
+
+    @FunctionalInterface
+    private interface SlideShowLoader {
+        XMLSlideShow load() throws IOException;
+    }
+
+    /**
+     * Renders every slide of the deck at its page size and hands each one to
+     * {@code sink} on the calling thread, in slide order.
+     *
+     * @return the number of slides rendered
+     */
+    public int render(MultipartFile pptx, SlideSink sink) throws IOException {
+        if (pptx instanceof ConversionInput) {
+            File source = ((ConversionInput) pptx).getPath().toFile();
+            return render(() -> open(source), sink);
+        }
+        if (pptx instanceof InMemoryMultipartFile) {
+            byte[] bytes = pptx.getBytes();
+            return render(() -> new XMLSlideShow(new ByteArrayInputStream(bytes)), sink);
+        }
+        ConversionInput spooled = ConversionInput.spool(pptx, scratchStorage.current());
+        try {
+            File source = spooled.getPath().toFile();
+            return render(() -> open(source), sink);
+        } finally {
+            spooled.delete();
+        }
+    }
+
+    private int render(SlideShowLoader loader, SlideSink sink) throws IOException {
+        Queue<XMLSlideShow> handles = new ConcurrentLinkedQueue<>();
+        List<CompletableFuture<RenderedSlide>> submitted = new ArrayList<>();
+        AtomicBoolean aborted = new AtomicBoolean();
+
+        XMLSlideShow first = loader.load();
+        handles.add(first);
+        try {
+            int slideCount = first.getSlides().size();
+            Dimension size = first.getPageSize();
+
+            int window = maxInFlight > 0 ? maxInFlight : renderPool.getParallelism() * 2;
+            Deque<CompletableFuture<RenderedSlide>> pending = new ArrayDeque<>();
+            int next = 0;
+            for (int delivered = 0; delivered < slideCount; delivered++) {
+                while (next < slideCount && pending.size() < window) {
+                    int slideIndex = next++;
+                    CompletableFuture<RenderedSlide> future = CompletableFuture.supplyAsync(() -> {
+                        if (aborted.get()) {
+                            return null;
+                        }
+                        try {
+                            return renderSlide(loader, handles, slideIndex, size);
+                        } catch (IOException e) {
+                            throw new UncheckedIOException(e);
+                        }
+                    }, renderPool);
+                    submitted.add(future);
+                    pending.addLast(future);
+                }
+                sink.accept(await(pending.pollFirst()));
+            }
+            return slideCount;
+        } finally {
+            aborted.set(true);
+            // Tasks that already started still hold a handle; let them finish before closing
+            for (CompletableFuture<RenderedSlide> future : submitted) {
+                try {
+                    future.join();
+                } catch (RuntimeException ignored) {
+                    // Failure was already reported through await()
+                }
+            }
+            for (XMLSlideShow handle : handles) {
+                handle.close();
+            }
+        }
+    }
+
+    private RenderedSlide renderSlide(SlideShowLoader loader, Queue<XMLSlideShow> handles, int slideIndex,
+                                      Dimension size) throws IOException {
+        XMLSlideShow slideShow = handles.poll();
+        if (slideShow == null) {
+            slideShow = loader.load();
+        }
+        BufferedImage image = rasterPool.acquire(size.width, size.height);
+        try {
+            Graphics2D graphics = image.createGraphics();
+            try {
+                graphics.setPaint(Color.white);
+                graphics.fillRect(0, 0, size.width, size.height);
+                slideShow.getSlides().get(slideIndex).draw(graphics);
+            } finally {
+                graphics.dispose();
+            }
+            return new RenderedSlide(slideIndex, encodeJpeg(image), size.width, size.height);
+        } finally {
+            rasterPool.release(image);
+            handles.add(slideShow);
+        }
+    }
+
+    private static byte[] encodeJpeg(BufferedImage image) throws IOException {
+        ImageWriter writer = ImageIO.getImageWritersByFormatName("jpeg").next();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        try (ImageOutputStream stream = ImageIO.createImageOutputStream(out)) {
+            ImageWriteParam param = writer.getDefaultWriteParam();
+            param.setCompressionMode(ImageWriteParam.MODE_EXPLICIT);
+            param.setCompressionQuality(JPEG_QUALITY);
+            writer.setOutput(stream);
+            writer.write(null, new IIOImage(image, null, null), param);
+        } finally {
+            writer.dispose();
+        }
+        return out.toByteArray();
+    }
+
+    private static XMLSlideShow open(File source) throws IOException {
+        try {
+            return new XMLSlideShow(OPCPackage.open(source, PackageAccess.READ));
+        } catch (InvalidFormatException e) {
+            throw new IOException("Could not read presentation", e);
+        }
+    }
+
+    private static RenderedSlide await(CompletableFuture<RenderedSlide> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for rendered slides");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Slide rendering failed", cause);
+        }
+    }
+}
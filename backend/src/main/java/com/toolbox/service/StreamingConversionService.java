@@ -0,0 +1,18 @@
+package com.toolbox.service;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * A converter that writes its result straight to a stream. The controller
+ * hands it the response body, so the result never touches local disk; the
+ * file-returning {@link #convert(MultipartFile, String)} is only kept for the
+ * job API, where results have to wait for the client to download them.
+ */
+public interface StreamingConversionService extends ConversionService {
+
+    @Override
+    void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException;
+}
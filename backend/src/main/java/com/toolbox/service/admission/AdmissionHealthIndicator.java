@@ -0,0 +1,28 @@
+package com.toolbox.service.admission;
+
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.boot.actuate.health.Health;
+import org.springframework.boot.actuate.health.HealthIndicator;
+import org.springframework.stereotype.Component;
+
+/**
+ * Reports OUT_OF_SERVICE while the conversion backlog is full. Part of the
+ * readiness group, so a load balancer stops routing here until it drains.
+ */
+@Component("admission")
+public class AdmissionHealthIndicator implements HealthIndicator {
+
+    @Autowired
+    private ConversionAdmission admission;
+
+    @Override
+    public Health health() {
+        Health.Builder builder = admission.isSaturated() ? Health.outOfService() : Health.up();
+        return builder
+                .withDetail("inFlightCost", admission.getInFlightCost())
+                .withDetail("capacity", admission.getCapacity())
+                .withDetail("backlog", admission.getBacklogSize())
+                .withDetail("maxBacklog", admission.getMaxBacklog())
+                .build();
+    }
+}
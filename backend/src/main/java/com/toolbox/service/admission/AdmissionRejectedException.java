@@ -0,0 +1,21 @@
+package com.toolbox.service.admission;
+
+import java.util.concurrent.RejectedExecutionException;
+
+/**
+ * Thrown when the conversion backlog is full. Carries a hint for how long the
+ * client should wait before retrying (surfaced as {@code Retry-After}).
+ */
+public class AdmissionRejectedException extends RejectedExecutionException {
+
+    private final long retryAfterSeconds;
+
+    public AdmissionRejectedException(String message, long retryAfterSeconds) {
+        super(message);
+        this.retryAfterSeconds = retryAfterSeconds;
+    }
+
+    public long getRetryAfterSeconds() {
+        return retryAfterSeconds;
+    }
+}
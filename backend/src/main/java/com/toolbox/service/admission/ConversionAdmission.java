@@ -0,0 +1,311 @@
+package com.toolbox.service.admission;
+
+import io.micrometer.core.instrument.Counter;
+import io.micrometer.core.instrument.Gauge;
+import io.micrometer.core.instrument.MeterRegistry;
+import jakarta.annotation.PostConstruct;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.lang.management.ManagementFactory;
+import java.lang.management.MemoryPoolMXBean;
+import java.lang.management.MemoryType;
+import java.lang.management.MemoryUsage;
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.ThreadPoolExecutor;
+
+/**
+ * Admission control in front of the conversion pool. Each conversion carries
+ * an estimated cost ({@link ConversionCostEstimator}); work starts only while
+ * a worker thread is free, the cost of everything running fits the CPU budget
+ * and the heap (as of the last GC) is below its limit. Anything else waits in
+ * a bounded backlog, and once that is full new requests are turned away at the
+ * door instead of piling onto a JVM that is already thrashing.
+ *
+ * Never starting more tickets than there are workers keeps the executor's own
+ * queue empty, so an admitted ticket can't be refused by its bounded queue
+ * (which would cut a streamed response off after the 200 was committed). For
+ * the same reason a worker that finishes runs the next ticket from the backlog
+ * itself rather than submitting it while it still holds the thread.
+ *
+ * The backlog bound is checked by {@link #checkCapacity()} before an upload
+ * is even spooled, so a burst can overshoot it by the requests in flight
+ * between that check and {@link #submit}.
+ */
+@Service
+public class ConversionAdmission {
+
+    @FunctionalInterface
+    public interface Work {
+        void run() throws Exception;
+    }
+
+    @Autowired
+    @Qualifier("conversionExecutor")
+    private ThreadPoolExecutor conversionExecutor;
+
+    @Autowired
+    private MeterRegistry meterRegistry;
+
+    // Cost units allowed to run at once; 0 means 50 per worker thread
+    @Value("${toolbox.admission.capacity:0}")
+    private long capacity;
+
+    @Value("${toolbox.admission.max-backlog:50}")
+    private int maxBacklog;
+
+    @Value("${toolbox.admission.max-heap-fraction:0.85}")
+    private double maxHeapFraction;
+
+    private final Object lock = new Object();
+    private final Deque<Ticket> backlog = new ArrayDeque<>();
+    private long inFlightCost;
+    private int running;
+
+    // Moving average of seconds per cost unit, for the Retry-After hint
+    private volatile double secondsPerUnit = 0.05;
+
+    private Counter rejected;
+
+    private static class Ticket {
+        final long cost;
+        final Work work;
+        final CompletableFuture<Void> done = new CompletableFuture<>();
+        private Thread worker;
+
+        Ticket(long cost, Work work) {
+            this.cost = cost;
+            this.work = work;
+            // Cancelling the future interrupts the work, like cancel(true) on a plain executor Future
+            done.whenComplete((result, failure) -> {
+                if (done.isCancelled()) {
+                    interruptWorker();
+                }
+            });
+        }
+
+        synchronized void setWorker(Thread worker) {
+            this.worker = worker;
+        }
+
+        synchronized void interruptWorker() {
+            if (worker != null) {
+                worker.interrupt();
+            }
+        }
+    }
+
+    @PostConstruct
+    void init() {
+        if (capacity <= 0) {
+            capacity = 50L * conversionExecutor.getMaximumPoolSize();
+        }
+        Gauge.builder("toolbox.admission.inflight.cost", this, ConversionAdmission::getInFlightCost)
+                .register(meterRegistry);
+        Gauge.builder("toolbox.admission.backlog", this, ConversionAdmission::getBacklogSize)
+                .register(meterRegistry);
+        rejected = Counter.builder("toolbox.admission.rejected").register(meterRegistry);
+    }
+
+    /**
+     * Fails fast if the backlog is full, before the caller spends anything on
+     * the request.
+     *
+     * @throws AdmissionRejectedException when saturated
+     */
+    public void checkCapacity() {
+        if (isSaturated()) {
+            rejected.increment();
+            throw new AdmissionRejectedException("Conversion backlog is full", getRetryAfterSeconds());
+        }
+    }
+
+    /**
+     * Runs {@code work} on the conversion pool as soon as its cost fits the
+     * budget. The future completes when the work is done, exceptionally if it
+     * threw.
+     */
+    public CompletableFuture<Void> submit(long cost, Work work) {
+        // A single request bigger than the whole budget still has to run eventually (alone)
+        Ticket ticket = new Ticket(Math.min(Math.max(cost, 1), capacity), work);
+        synchronized (lock) {
+            if (backlog.isEmpty() && canStart(ticket.cost)) {
+                start(ticket);
+                return ticket.done;
+            }
+            backlog.addLast(ticket);
+        }
+        return ticket.done;
+    }
+
+    /**
+     * {@link #submit}s {@code work} and waits for it, for callers that stream
+     * the result themselves (the calling thread is typically a virtual thread
+     * holding the response). Interrupting the caller cancels the work.
+     */
+    public void run(long cost, Work work) throws IOException {
+        CompletableFuture<Void> task = submit(cost, work);
+        try {
+            task.get();
+        } catch (InterruptedException e) {
+            task.cancel(true);
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while waiting for conversion");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof IOException) {
+                throw (IOException) cause;
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Conversion failed", cause);
+        }
+    }
+
+    public boolean isSaturated() {
+        synchronized (lock) {
+            return backlog.size() >= maxBacklog;
+        }
+    }
+
+    public long getInFlightCost() {
+        synchronized (lock) {
+            return inFlightCost;
+        }
+    }
+
+    public int getBacklogSize() {
+        synchronized (lock) {
+            return backlog.size();
+        }
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public int getMaxBacklog() {
+        return maxBacklog;
+    }
+
+    /** Roughly how long the running work plus the backlog will take to drain. */
+    public long getRetryAfterSeconds() {
+        long pending;
+        synchronized (lock) {
+            pending = inFlightCost;
+            for (Ticket ticket : backlog) {
+                pending += ticket.cost;
+            }
+        }
+        // The budget is what runs concurrently, so that's the drain rate in units per "unit time"
+        double seconds = pending * secondsPerUnit * conversionExecutor.getMaximumPoolSize() / capacity;
+        return Math.max(1, Math.min(120, (long) Math.ceil(seconds)));
+    }
+
+    // Called with lock held
+    private boolean canStart(long cost) {
+        if (running == 0) {
+            // Nothing to wait for: refusing would stall the queue forever
+            return true;
+        }
+        return running < conversionExecutor.getMaximumPoolSize()
+                && inFlightCost + cost <= capacity
+                && heapUsedAfterGc() < maxHeapFraction;
+    }
+
+    // Called with lock held
+    private void charge(Ticket ticket) {
+        inFlightCost += ticket.cost;
+        running++;
+    }
+
+    // Called with lock held
+    private void start(Ticket ticket) {
+        charge(ticket);
+        try {
+            conversionExecutor.execute(() -> execute(ticket));
+        } catch (RejectedExecutionException e) {
+            inFlightCost -= ticket.cost;
+            running--;
+            ticket.done.completeExceptionally(e);
+        }
+    }
+
+    private void execute(Ticket first) {
+        Ticket ticket = first;
+        while (ticket != null) {
+            // A cancelled ticket's interrupt must not leak into the next one run on this thread
+            Thread.interrupted();
+            runTicket(ticket);
+            ticket = finished(ticket);
+        }
+    }
+
+    private void runTicket(Ticket ticket) {
+        long started = System.nanoTime();
+        ticket.setWorker(Thread.currentThread());
+        try {
+            if (!ticket.done.isDone()) {
+                ticket.work.run();
+            }
+            ticket.done.complete(null);
+        } catch (Throwable t) {
+            ticket.done.completeExceptionally(t);
+        } finally {
+            ticket.setWorker(null);
+            double seconds = (System.nanoTime() - started) / 1e9;
+            secondsPerUnit = 0.8 * secondsPerUnit + 0.2 * (seconds / ticket.cost);
+        }
+    }
+
+    // Releases the ticket's share and returns the next ticket for this worker to run, if any
+    private Ticket finished(Ticket ticket) {
+        synchronized (lock) {
+            inFlightCost -= ticket.cost;
+            running--;
+            Ticket inline = null;
+            while (!backlog.isEmpty()) {
+                Ticket next = backlog.peekFirst();
+                if (next.done.isDone()) {
+                    // Cancelled while waiting (client went away)
+                    backlog.pollFirst();
+                    continue;
+                }
+                if (!canStart(next.cost)) {
+                    break;
+                }
+                backlog.pollFirst();
+                if (inline == null) {
+                    // This thread is still busy as far as the executor knows; keep it for the next one
+                    charge(next);
+                    inline = next;
+                } else {
+                    // The cost freed up may let more start on workers that really are idle
+                    start(next);
+                }
+            }
+            return inline;
+        }
+    }
+
+    // Fraction of the max heap still in use after the most recent collection of each heap pool
+    private static double heapUsedAfterGc() {
+        long used = 0;
+        for (MemoryPoolMXBean pool : ManagementFactory.getMemoryPoolMXBeans()) {
+            if (pool.getType() == MemoryType.HEAP) {
+                MemoryUsage afterGc = pool.getCollectionUsage();
+                used += afterGc != null ? afterGc.getUsed() : pool.getUsage().getUsed();
+            }
+        }
+        return (double) used / Runtime.getRuntime().maxMemory();
+    }
+}
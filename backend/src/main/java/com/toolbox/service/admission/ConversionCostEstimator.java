@@ -0,0 +1,35 @@
+package com.toolbox.service.admission;
+
+import com.toolbox.service.ConversionRoute;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.PageRanges;
+import org.springframework.stereotype.Service;
+
+/**
+ * Rough cost of a conversion in abstract units: the route's converter cost
+ * times the amount of work in the input. Page-oriented sources are measured
+ * in pages (only the selected ones, if the request picked some), everything
+ * else in megabytes. It only has to rank requests well enough to keep a
+ * burst of heavy renders from all starting at once.
+ */
+@Service
+public class ConversionCostEstimator {
+
+    private static final long MEGABYTE = 1024 * 1024;
+
+    public long estimate(ConversionRoute route, ConversionInput input, PageRanges pages) {
+        String source = route.getHops().get(0).getSourceFormat();
+        long units = -1;
+        if ("pdf".equals(source) || "pptx".equals(source)) {
+            // Probed once and cached on the input for the converters that need it later
+            units = input.getPageCount();
+            if (units > 0 && !pages.isAll()) {
+                units = pages.count((int) units);
+            }
+        }
+        if (units <= 0) {
+            units = (input.getSize() + MEGABYTE - 1) / MEGABYTE;
+        }
+        return Math.max(1, route.getCost() * units);
+    }
+}
@@ -0,0 +1,116 @@
+package com.toolbox.service.font;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.List;
+
+/**
+ * The registry's font chain bound to one {@link PDDocument}. Each code point is
+ * drawn with the first font in the chain that has a glyph for it, and falls
+ * back to '?' when none does. Fonts are embedded (as subsets) the first time
+ * they are actually used, so a document only carries the fonts it needs.
+ *
+ * Not thread-safe, like the document itself.
+ */
+public class DocumentFont {
+
+    private static final int REPLACEMENT = '?';
+
+    private final PDDocument document;
+    private final List<RegisteredFont> chain;
+    private final PDFont[] embedded;
+
+    // What the last content stream was switched to, to skip redundant Tf operators
+    private PDPageContentStream currentStream;
+    private PDFont currentFont;
+    private float currentSize;
+
+    DocumentFont(PDDocument document, List<RegisteredFont> chain) {
+        this.document = document;
+        this.chain = chain;
+        this.embedded = new PDFont[chain.size()];
+    }
+
+    /**
+     * Shows text at the current text position (inside beginText/endText).
+     * Control characters are dropped; anything no font covers comes out as '?'.
+     */
+    public void showText(PDPageContentStream stream, String text, float fontSize) throws IOException {
+        StringBuilder run = new StringBuilder();
+        int runFont = -1;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            if (Character.isISOControl(codePoint)) {
+                continue;
+            }
+            int index = fontFor(codePoint);
+            if (index < 0) {
+                codePoint = REPLACEMENT;
+                index = fontFor(codePoint);
+                if (index < 0) continue;
+            }
+            if (index != runFont && run.length() > 0) {
+                show(stream, runFont, run.toString(), fontSize);
+                run.setLength(0);
+            }
+            runFont = index;
+            run.appendCodePoint(codePoint);
+        }
+        if (run.length() > 0) {
+            show(stream, runFont, run.toString(), fontSize);
+        }
+    }
+
+    /** Width of the text in points as {@link #showText} would draw it, from the shared width cache. */
+    public float width(String text, float fontSize) {
+        float width = 0;
+        for (int i = 0; i < text.length(); ) {
+            int codePoint = text.codePointAt(i);
+            i += Character.charCount(codePoint);
+            width += width(codePoint, fontSize);
+        }
+        return width;
+    }
+
+    /** Width of one code point in points; 0 for characters {@link #showText} drops. */
+    public float width(int codePoint, float fontSize) {
+        if (Character.isISOControl(codePoint)) {
+            return 0;
+        }
+        int index = fontFor(codePoint);
+        if (index < 0) {
+            codePoint = REPLACEMENT;
+            index = fontFor(codePoint);
+            if (index < 0) return 0;
+        }
+        return chain.get(index).advance(codePoint) * fontSize / 1000f;
+    }
+
+    private int fontFor(int codePoint) {
+        for (int i = 0; i < chain.size(); i++) {
+            if (chain.get(i).covers(codePoint)) {
+                return i;
+            }
+        }
+        return -1;
+    }
+
+    private void show(PDPageContentStream stream, int index, String text, float fontSize) throws IOException {
+        PDFont font = embedded[index];
+        if (font == null) {
+            font = chain.get(index).embed(document);
+            embedded[index] = font;
+        }
+        if (stream != currentStream || font != currentFont || fontSize != currentSize) {
+            stream.setFont(font, fontSize);
+            currentStream = stream;
+            currentFont = font;
+            currentSize = fontSize;
+        }
+        stream.showText(text);
+    }
+}
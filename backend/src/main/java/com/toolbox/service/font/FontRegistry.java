@@ -0,0 +1,114 @@
+package com.toolbox.service.font;
+
+import jakarta.annotation.PostConstruct;
+import org.apache.fontbox.ttf.OTFParser;
+import org.apache.fontbox.ttf.OpenTypeFont;
+import org.apache.fontbox.ttf.TTFParser;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.stereotype.Service;
+
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+import java.util.stream.Stream;
+
+/**
+ * Process-wide set of fonts for every PDF we write. The configured TTF/OTF
+ * files are read and parsed once at startup and kept in memory; a conversion
+ * asks for a {@link DocumentFont}, which embeds subsets of them into its own
+ * document and measures text against widths cached here.
+ *
+ * Fonts are tried in configuration order for each character, so list a broad
+ * Latin/Cyrillic font first and put CJK or symbol fonts after it. If none of
+ * the files can be loaded we fall back to the standard Helvetica (WinAnsi
+ * only), which is what the converters used before.
+ */
+@Service
+public class FontRegistry {
+
+    private static final Logger log = LoggerFactory.getLogger(FontRegistry.class);
+
+    // Files or directories (scanned one level deep); missing entries are skipped
+    @Value("${toolbox.fonts.paths:/usr/share/fonts/truetype/dejavu/DejaVuSans.ttf,/usr/share/fonts/truetype/liberation/LiberationSans-Regular.ttf,/usr/share/fonts/truetype/noto/NotoSans-Regular.ttf}")
+    private List<String> paths;
+
+    private List<RegisteredFont> chain;
+
+    @PostConstruct
+    void init() {
+        List<RegisteredFont> fonts = new ArrayList<>();
+        for (String entry : paths) {
+            if (entry.isBlank()) continue;
+            for (Path file : fontFiles(Paths.get(entry.trim()))) {
+                try {
+                    fonts.add(RegisteredFont.trueType(file.getFileName().toString(), parse(file)));
+                    log.info("Loaded font {}", file);
+                } catch (IOException | RuntimeException e) {
+                    log.warn("Skipping font {}: {}", file, e.getMessage());
+                }
+            }
+        }
+        if (fonts.isEmpty()) {
+            log.warn("No fonts loaded from toolbox.fonts.paths, PDF text is limited to WinAnsi (Helvetica)");
+            fonts.add(RegisteredFont.helvetica());
+        }
+        chain = Collections.unmodifiableList(fonts);
+    }
+
+    /** A font for writing text into the given document. Use one per document. */
+    public DocumentFont forDocument(PDDocument document) {
+        return new DocumentFont(document, chain);
+    }
+
+    /** Names of the loaded fonts, in lookup order. */
+    public List<String> getFontNames() {
+        return chain.stream().map(RegisteredFont::getName).toList();
+    }
+
+    private static List<Path> fontFiles(Path path) {
+        if (Files.isRegularFile(path)) {
+            return List.of(path);
+        }
+        if (!Files.isDirectory(path)) {
+            log.debug("Font path {} does not exist", path);
+            return List.of();
+        }
+        try (Stream<Path> files = Files.list(path)) {
+            return files.filter(Files::isRegularFile).filter(FontRegistry::isFontFile).sorted().toList();
+        } catch (IOException e) {
+            log.warn("Cannot list font directory {}: {}", path, e.getMessage());
+            return List.of();
+        }
+    }
+
+    private static boolean isFontFile(Path file) {
+        String name = file.getFileName().toString().toLowerCase(Locale.ROOT);
+        return name.endsWith(".ttf") || name.endsWith(".otf");
+    }
+
+    private static TrueTypeFont parse(Path file) throws IOException {
+        // Parse from memory so requests never touch the file (or hold its handle) afterwards
+        try (InputStream in = Files.newInputStream(file)) {
+            if (file.getFileName().toString().toLowerCase(Locale.ROOT).endsWith(".otf")) {
+                OpenTypeFont font = new OTFParser().parse(in);
+                if (font.isPostScript()) {
+                    // PDType0Font can only embed TrueType outlines
+                    font.close();
+                    throw new IOException("CFF-based OpenType fonts can't be embedded");
+                }
+                return font;
+            }
+            return new TTFParser().parse(in);
+        }
+    }
+}
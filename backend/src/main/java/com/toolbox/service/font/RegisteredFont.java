@@ -0,0 +1,140 @@
+package com.toolbox.service.font;
+
+import org.apache.fontbox.ttf.CmapLookup;
+import org.apache.fontbox.ttf.TrueTypeFont;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType0Font;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * One font parsed at startup and shared by every conversion. Holds the
+ * code point -> advance width cache used for measuring text; the PDF font
+ * object itself is per document (see {@link #embed}).
+ */
+abstract class RegisteredFont {
+
+    // Sentinels in the BMP width table
+    private static final int UNKNOWN = Integer.MIN_VALUE;
+    private static final int MISSING = -1;
+
+    private final String name;
+    private final int[] bmpAdvances = new int[Character.MAX_VALUE + 1];
+    private final Map<Integer, Integer> supplementaryAdvances = new ConcurrentHashMap<>();
+
+    RegisteredFont(String name) {
+        this.name = name;
+        Arrays.fill(bmpAdvances, UNKNOWN);
+    }
+
+    String getName() {
+        return name;
+    }
+
+    boolean covers(int codePoint) {
+        return advance(codePoint) >= 0;
+    }
+
+    /** Advance width of the code point in 1/1000 em, or -1 if the font has no glyph for it. */
+    float advance(int codePoint) {
+        int units;
+        if (codePoint <= Character.MAX_VALUE) {
+            // Racing writers store the same value, so plain array access is fine
+            units = bmpAdvances[codePoint];
+            if (units == UNKNOWN) {
+                units = lookupAdvance(codePoint);
+                bmpAdvances[codePoint] = units;
+            }
+        } else {
+            units = supplementaryAdvances.computeIfAbsent(codePoint, this::lookupAdvance);
+        }
+        return units == MISSING ? -1 : units * 1000f / unitsPerEm();
+    }
+
+    /** Advance in font units, or -1 (MISSING) if the font can't show the code point. */
+    protected abstract int lookupAdvance(int codePoint);
+
+    protected abstract int unitsPerEm();
+
+    /** The PDF font to draw with in one document. Subsetted fonts are only embedded with the glyphs used. */
+    abstract PDFont embed(PDDocument document) throws IOException;
+
+    static RegisteredFont trueType(String name, TrueTypeFont font) throws IOException {
+        return new TrueTypeRegisteredFont(name, font);
+    }
+
+    static RegisteredFont helvetica() {
+        return new StandardRegisteredFont();
+    }
+
+    private static class TrueTypeRegisteredFont extends RegisteredFont {
+        private final TrueTypeFont font;
+        private final CmapLookup cmap;
+        private final int unitsPerEm;
+
+        TrueTypeRegisteredFont(String name, TrueTypeFont font) throws IOException {
+            super(name);
+            this.font = font;
+            this.cmap = font.getUnicodeCmapLookup();
+            this.unitsPerEm = font.getUnitsPerEm();
+            // Pull in the tables subsetting and measuring need now rather than on the first request
+            font.getHorizontalMetrics();
+            font.getGlyph();
+            font.getNaming();
+            font.getPostScript();
+            font.getOS2Windows();
+        }
+
+        @Override
+        protected int lookupAdvance(int codePoint) {
+            try {
+                int gid = cmap.getGlyphId(codePoint);
+                return gid == 0 ? MISSING : font.getAdvanceWidth(gid);
+            } catch (IOException e) {
+                return MISSING;
+            }
+        }
+
+        @Override
+        protected int unitsPerEm() {
+            return unitsPerEm;
+        }
+
+        @Override
+        PDFont embed(PDDocument document) throws IOException {
+            // The shared TrueTypeFont is not closed with the document
+            return PDType0Font.load(document, font, true);
+        }
+    }
+
+    // Last resort when no font file could be loaded: WinAnsi only, nothing embedded
+    private static class StandardRegisteredFont extends RegisteredFont {
+        StandardRegisteredFont() {
+            super("Helvetica");
+        }
+
+        @Override
+        protected int lookupAdvance(int codePoint) {
+            try {
+                return Math.round(PDType1Font.HELVETICA.getStringWidth(new String(Character.toChars(codePoint))));
+            } catch (IllegalArgumentException | IOException e) {
+                return MISSING;
+            }
+        }
+
+        @Override
+        protected int unitsPerEm() {
+            return 1000;
+        }
+
+        @Override
+        PDFont embed(PDDocument document) {
+            return PDType1Font.HELVETICA;
+        }
+    }
+}
@@ -1,17 +1,48 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.IcoWriter;
+import com.toolbox.util.ImageDecoding;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Qualifier;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
 import java.awt.*;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
 
+/**
+ * Image to a multi-resolution .ico with the sizes Windows and browsers pick
+ * from. The upload is decoded once (subsampled to about twice the largest
+ * size), and every smaller level is scaled from an already-built one, halving
+ * where the sizes allow, so no level touches the source again. Levels are
+ * PNG-encoded on the render pool while the next ones are still being scaled.
+ */
 @Service
-public class ImageToIconConversionService implements ConversionService {
+public class ImageToIconConversionService implements StreamingConversionService {
+
+    // Largest first; each level is built from a bigger one
+    private static final int[] ICON_SIZES = {256, 128, 64, 48, 32, 24, 16};
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    @Qualifier("pageRenderPool")
+    private ForkJoinPool renderPool;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -23,36 +54,77 @@ public class ImageToIconConversionService implements ConversionService {
 
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
-        BufferedImage originalImage = ImageIO.read(file.getInputStream());
-        
-        // Create a 256x256 icon (standard large icon size)
-        int iconSize = 256;
-        BufferedImage iconImage = new BufferedImage(iconSize, iconSize, BufferedImage.TYPE_INT_ARGB);
-        
-        Graphics2D g2d = iconImage.createGraphics();
-        g2d.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BILINEAR);
-        g2d.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
-        g2d.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
-        
-        // Scale the image to fit the icon size while maintaining aspect ratio
-        int originalWidth = originalImage.getWidth();
-        int originalHeight = originalImage.getHeight();
-        
-        double scale = Math.min((double) iconSize / originalWidth, (double) iconSize / originalHeight);
-        int scaledWidth = (int) (originalWidth * scale);
-        int scaledHeight = (int) (originalHeight * scale);
-        
-        int x = (iconSize - scaledWidth) / 2;
-        int y = (iconSize - scaledHeight) / 2;
-        
-        g2d.drawImage(originalImage, x, y, scaledWidth, scaledHeight, null);
+        return scratchStorage.writeFile("icon-", ".ico", out -> convert(file, targetFormat, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        int largest = ICON_SIZES[0];
+
+        // Decoded at ~2x the largest size at most, never at the photo's full resolution
+        BufferedImage originalImage = ImageDecoding.readForSize(file, largest, largest);
+        BufferedImage scaledImage = ImageDecoding.scaleToFit(originalImage, largest, largest);
+
+        // Centre it on a square transparent canvas, keeping its aspect ratio
+        BufferedImage top = new BufferedImage(largest, largest, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g2d = top.createGraphics();
+        g2d.drawImage(scaledImage, (largest - scaledImage.getWidth()) / 2, (largest - scaledImage.getHeight()) / 2, null);
         g2d.dispose();
-        
-        // Save as PNG (browsers can use PNG as favicon)
-        // True ICO format requires additional libraries, PNG works for web favicons
-        File outputFile = File.createTempFile("icon-", ".png");
-        ImageIO.write(iconImage, "png", outputFile);
-        
-        return outputFile;
+
+        List<BufferedImage> levels = new ArrayList<>();
+        List<CompletableFuture<IcoWriter.Entry>> encoded = new ArrayList<>();
+        for (int size : ICON_SIZES) {
+            BufferedImage level = size == largest ? top : ImageDecoding.scaleToFit(sourceFor(levels, size), size, size);
+            levels.add(level);
+            encoded.add(CompletableFuture.supplyAsync(() -> new IcoWriter.Entry(size, encodePng(level)), renderPool));
+        }
+
+        List<IcoWriter.Entry> entries = new ArrayList<>();
+        for (CompletableFuture<IcoWriter.Entry> entry : encoded) {
+            entries.add(await(entry));
+        }
+        IcoWriter.write(entries, out);
+    }
+
+    // Exactly twice the size if we have it (a clean halving), otherwise the next larger level
+    private static BufferedImage sourceFor(List<BufferedImage> levels, int size) {
+        BufferedImage best = null;
+        for (BufferedImage level : levels) {
+            if (level.getWidth() == size * 2) {
+                return level;
+            }
+            if (level.getWidth() > size) {
+                best = level;
+            }
+        }
+        return best;
+    }
+
+    private static byte[] encodePng(BufferedImage image) {
+        try {
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            ImageIO.write(image, "png", out);
+            return out.toByteArray();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private static IcoWriter.Entry await(CompletableFuture<IcoWriter.Entry> future) throws IOException {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while encoding icon sizes");
+        } catch (ExecutionException e) {
+            Throwable cause = e.getCause();
+            if (cause instanceof UncheckedIOException) {
+                throw ((UncheckedIOException) cause).getCause();
+            }
+            if (cause instanceof RuntimeException) {
+                throw (RuntimeException) cause;
+            }
+            throw new IOException("Icon encoding failed", cause);
+        }
     }
 }
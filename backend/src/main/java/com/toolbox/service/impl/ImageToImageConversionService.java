@@ -1,6 +1,8 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.scratch.ScratchStorage;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -9,9 +11,13 @@ import java.awt.Color;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Service
-public class ImageToImageConversionService implements ConversionService {
+public class ImageToImageConversionService implements StreamingConversionService {
+
+    @Autowired
+    private ScratchStorage scratchStorage;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -23,6 +29,11 @@ public class ImageToImageConversionService implements ConversionService {
 
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
+        return scratchStorage.writeFile("converted-", "." + targetFormat, out -> convert(file, targetFormat, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
         BufferedImage originalImage = ImageIO.read(file.getInputStream());
         
         // Handle transparency if converting PNG (with alpha) to JPG (no alpha)
@@ -37,10 +48,7 @@ public class ImageToImageConversionService implements ConversionService {
             originalImage = newImage;
         }
 
-        File outputFile = File.createTempFile("converted-", "." + targetFormat);
         String formatName = targetFormat.equalsIgnoreCase("jpg") ? "jpeg" : targetFormat;
-        ImageIO.write(originalImage, formatName, outputFile);
-        
-        return outputFile;
+        ImageIO.write(originalImage, formatName, out);
     }
 }
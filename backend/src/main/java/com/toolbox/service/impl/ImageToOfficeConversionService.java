@@ -1,6 +1,8 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ImageDecoding;
 import org.apache.poi.util.Units;
 import org.apache.poi.xslf.usermodel.XMLSlideShow;
 import org.apache.poi.xslf.usermodel.XSLFPictureData;
@@ -11,17 +13,23 @@ import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
 import org.apache.poi.sl.usermodel.PictureData;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import javax.imageio.ImageIO;
+import java.awt.Dimension;
 import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Service
-public class ImageToOfficeConversionService implements ConversionService {
+public class ImageToOfficeConversionService implements StreamingConversionService {
+
+    @Autowired
+    private ScratchStorage scratchStorage;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -32,14 +40,20 @@ public class ImageToOfficeConversionService implements ConversionService {
 
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
+        String suffix = "docx".equalsIgnoreCase(targetFormat) ? ".docx" : ".pptx";
+        return scratchStorage.writeFile("converted-", suffix, out -> convert(file, targetFormat, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
         if ("docx".equalsIgnoreCase(targetFormat)) {
-            return convertToWord(file);
+            convertToWord(file, out);
         } else {
-            return convertToPpt(file);
+            convertToPpt(file, out);
         }
     }
 
-    private File convertToWord(MultipartFile file) throws IOException {
+    private void convertToWord(MultipartFile file, OutputStream out) throws IOException {
         try (XWPFDocument document = new XWPFDocument()) {
             XWPFParagraph p = document.createParagraph();
             p.setAlignment(ParagraphAlignment.CENTER);
@@ -49,9 +63,10 @@ public class ImageToOfficeConversionService implements ConversionService {
             String extension = filename != null ? filename.substring(filename.lastIndexOf('.') + 1).toLowerCase() : "jpg";
             int picType = "png".equals(extension) ? XWPFDocument.PICTURE_TYPE_PNG : XWPFDocument.PICTURE_TYPE_JPEG;
 
-            BufferedImage bimg = ImageIO.read(file.getInputStream());
-            int width = bimg.getWidth();
-            int height = bimg.getHeight();
+            // Only the dimensions are needed; the picture bytes go in unchanged
+            Dimension size = ImageDecoding.readSize(file);
+            int width = size.width;
+            int height = size.height;
 
             // Fit to page (approx 500pt width)
             int targetWidth = 500;
@@ -59,17 +74,13 @@ public class ImageToOfficeConversionService implements ConversionService {
 
             r.addPicture(file.getInputStream(), picType, filename, Units.toEMU(targetWidth), Units.toEMU(targetHeight));
 
-            File outputFile = File.createTempFile("converted-", ".docx");
-            try (FileOutputStream out = new FileOutputStream(outputFile)) {
-                document.write(out);
-            }
-            return outputFile;
+            document.write(out);
         } catch (Exception e) {
             throw new IOException("Error converting image to word", e);
         }
     }
 
-    private File convertToPpt(MultipartFile file) throws IOException {
+    private void convertToPpt(MultipartFile file, OutputStream out) throws IOException {
         try (XMLSlideShow ppt = new XMLSlideShow()) {
             XSLFSlide slide = ppt.createSlide();
 
@@ -77,29 +88,40 @@ public class ImageToOfficeConversionService implements ConversionService {
             String extension = filename != null ? filename.substring(filename.lastIndexOf('.') + 1).toLowerCase() : "jpg";
             PictureData.PictureType picType = "png".equals(extension) ? PictureData.PictureType.PNG : PictureData.PictureType.JPEG;
 
-            byte[] data = file.getBytes();
-            XSLFPictureData pd = ppt.addPicture(data, picType);
+            // createPicture sizes the shape from the picture's dimensions, and POI (5.2.5) gets those
+            // by decoding the whole bitmap: DrawPictureShape.resize -> XSLFPictureData.getImageDimension
+            // -> ImageHeaderBitmap -> ImageIO.read. Let it measure a 1x1 stand-in, then swap in the real
+            // bytes; the shape is anchored from the header size below anyway.
+            XSLFPictureData pd = ppt.addPicture(placeholder(picType), picType);
             XSLFPictureShape pic = slide.createPicture(pd);
+            // setData writes through the part's output stream, which appends for in-memory parts
+            // (MemoryPackagePart) and replaces for others; emptying the part first is right for both.
+            // ImageToOfficeConversionServiceTest reopens the output to catch a POI upgrade changing this.
+            pd.getPackagePart().clear();
+            pd.setData(file.getBytes());
 
             // Center content logic could go here, for now it places at 0,0 default
             // Let's try to fit to slide
             // Page size default is 720x540
             java.awt.Dimension pgsize = ppt.getPageSize();
-            BufferedImage bimg = ImageIO.read(file.getInputStream());
-            double scale = Math.min(pgsize.getWidth() / bimg.getWidth(), pgsize.getHeight() / bimg.getHeight());
-            double w = bimg.getWidth() * scale;
-            double h = bimg.getHeight() * scale;
+            Dimension size = ImageDecoding.readSize(file);
+            double scale = Math.min(pgsize.getWidth() / size.width, pgsize.getHeight() / size.height);
+            double w = size.width * scale;
+            double h = size.height * scale;
             
             pic.setAnchor(new java.awt.geom.Rectangle2D.Double(
                 (pgsize.getWidth() - w) / 2, 
                 (pgsize.getHeight() - h) / 2, 
                 w, h));
 
-            File outputFile = File.createTempFile("converted-", ".pptx");
-            try (FileOutputStream out = new FileOutputStream(outputFile)) {
-                ppt.write(out);
-            }
-            return outputFile;
+            ppt.write(out);
         }
     }
+
+    private static byte[] placeholder(PictureData.PictureType picType) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(1, 1, BufferedImage.TYPE_INT_RGB),
+                picType == PictureData.PictureType.PNG ? "png" : "jpeg", out);
+        return out.toByteArray();
+    }
 }
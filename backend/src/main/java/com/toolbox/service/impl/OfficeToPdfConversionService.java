@@ -1,39 +1,72 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.ConversionMetrics;
+import com.toolbox.service.SlideRasterizer;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.font.DocumentFont;
+import com.toolbox.service.font.FontRegistry;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.graphics.image.JPEGFactory;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
-import org.apache.poi.ss.usermodel.Cell;
-import org.apache.poi.ss.usermodel.Row;
-import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
-import org.apache.poi.xslf.usermodel.XMLSlideShow;
-import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.openxml4j.exceptions.InvalidFormatException;
+import org.apache.poi.openxml4j.exceptions.OpenXML4JException;
+import org.apache.poi.openxml4j.opc.OPCPackage;
+import org.apache.poi.openxml4j.opc.PackageAccess;
+import org.apache.poi.ss.usermodel.DataFormatter;
+import org.apache.poi.util.XMLHelper;
+import org.apache.poi.xssf.eventusermodel.ReadOnlySharedStringsTable;
+import org.apache.poi.xssf.eventusermodel.XSSFReader;
+import org.apache.poi.xssf.eventusermodel.XSSFSheetXMLHandler;
+import org.apache.poi.xssf.model.StylesTable;
+import org.apache.poi.xssf.usermodel.XSSFComment;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFPicture;
+import org.apache.poi.xwpf.usermodel.XWPFPictureData;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
+import org.xml.sax.InputSource;
+import org.xml.sax.SAXException;
+import org.xml.sax.XMLReader;
 
-import java.awt.Color;
-import java.awt.Dimension;
-import java.awt.Graphics2D;
-import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
+import javax.xml.parsers.ParserConfigurationException;
 import java.io.File;
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.UncheckedIOException;
 import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
 import java.util.List;
+import java.util.Map;
 
 @Service
-public class OfficeToPdfConversionService implements ConversionService {
+public class OfficeToPdfConversionService implements StreamingConversionService {
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
+
+    @Autowired
+    private FontRegistry fontRegistry;
+
+    @Autowired
+    private SlideRasterizer slideRasterizer;
+
+    // Main-memory budget for the PDF built from a spreadsheet, the rest spills to scratch
+    @Value("${toolbox.office.max-memory-bytes:16777216}")
+    private long maxMemoryBytes;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -45,69 +78,132 @@ public class OfficeToPdfConversionService implements ConversionService {
 
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
+        return scratchStorage.writeFile("converted-", ".pdf", out -> convert(file, targetFormat, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
         String sourceFormat = getFileExtension(file.getOriginalFilename());
         
         if ("pptx".equalsIgnoreCase(sourceFormat)) {
-             return convertPptxToPdf(file);
+             convertPptxToPdf(file, out);
+             return;
         } else if ("docx".equalsIgnoreCase(sourceFormat)) {
-             return convertDocxToPdf(file);
+             convertDocxToPdf(file, out);
+             return;
+        } else if ("xlsx".equalsIgnoreCase(sourceFormat)) {
+             convertXlsxToPdf(file, out);
+             return;
         }
 
-        // Fallback or other formats (xlsx simple text)
-        List<String> extractedText = new ArrayList<>();
-        if ("xlsx".equalsIgnoreCase(sourceFormat)) {
-            try (Workbook workbook = new XSSFWorkbook(file.getInputStream())) {
-                for (Sheet sheet : workbook) {
-                    extractedText.add("Sheet: " + sheet.getSheetName());
-                    for (Row row : sheet) {
-                        StringBuilder sb = new StringBuilder();
-                        for (Cell cell : row) {
-                            sb.append(cell.toString()).append("  ");
-                        }
-                        extractedText.add(sb.toString());
-                    }
-                    extractedText.add(""); 
+        // Fallback for other formats
+        createPdfFromText(new ArrayList<>(), out);
+    }
+
+    /**
+     * Streams the sheets through POI's SAX event model instead of the XSSFWorkbook
+     * DOM: each row is written to the PDF as soon as it is parsed, and the output
+     * document spills to scratch past its memory budget. Memory is bounded by the
+     * shared-strings table plus one page of output, not by the row count.
+     */
+    private void convertXlsxToPdf(MultipartFile file, OutputStream out) throws IOException {
+        try (OPCPackage pkg = openPackage(file);
+             PDDocument pdfDocument = new PDDocument(scratchStorage.pdfMemoryUsage(maxMemoryBytes))) {
+            XSSFReader reader = new XSSFReader(pkg);
+            ReadOnlySharedStringsTable strings = new ReadOnlySharedStringsTable(pkg);
+            StylesTable styles = reader.getStylesTable();
+            DataFormatter formatter = new DataFormatter();
+            PagedTextWriter writer = new PagedTextWriter(pdfDocument, fontRegistry.forDocument(pdfDocument));
+
+            XSSFReader.SheetIterator sheets = (XSSFReader.SheetIterator) reader.getSheetsData();
+            while (sheets.hasNext()) {
+                try (InputStream sheet = sheets.next()) {
+                    writer.line("Sheet: " + sheets.getSheetName());
+                    XMLReader parser = XMLHelper.newXMLReader();
+                    parser.setContentHandler(new XSSFSheetXMLHandler(styles, null, strings,
+                            new RowWriter(writer), formatter, false));
+                    parser.parse(new InputSource(sheet));
+                    writer.line("");
+                } catch (UncheckedIOException e) {
+                    throw e.getCause();
                 }
             }
+            writer.finish();
+
+            conversionMetrics.recordPages(pdfDocument.getNumberOfPages());
+            pdfDocument.save(out);
+        } catch (OpenXML4JException | SAXException | ParserConfigurationException e) {
+            throw new IOException("Could not read spreadsheet", e);
         }
+    }
 
-        return createPdfFromText(extractedText);
+    private OPCPackage openPackage(MultipartFile file) throws IOException, InvalidFormatException {
+        // A spooled upload can be read in place; the zip entries are then inflated on demand
+        if (file instanceof ConversionInput) {
+            return OPCPackage.open(((ConversionInput) file).getPath().toFile(), PackageAccess.READ);
+        }
+        return OPCPackage.open(file.getInputStream());
     }
 
-    private File convertPptxToPdf(MultipartFile file) throws IOException {
-        try (XMLSlideShow ppt = new XMLSlideShow(file.getInputStream());
-             PDDocument pdfDocument = new PDDocument()) {
-            
-            Dimension pgsize = ppt.getPageSize();
-            
-            for (XSLFSlide slide : ppt.getSlides()) {
-                PDPage page = new PDPage(new PDRectangle((float)pgsize.getWidth(), (float)pgsize.getHeight()));
+    // Joins the cells of each parsed row the same way the old DOM path did
+    private static class RowWriter implements XSSFSheetXMLHandler.SheetContentsHandler {
+        private final PagedTextWriter writer;
+        private final StringBuilder row = new StringBuilder();
+
+        RowWriter(PagedTextWriter writer) {
+            this.writer = writer;
+        }
+
+        @Override
+        public void startRow(int rowNum) {
+            row.setLength(0);
+        }
+
+        @Override
+        public void endRow(int rowNum) {
+            try {
+                writer.line(row.toString());
+            } catch (IOException e) {
+                // SAX callbacks can't throw IOException; unwrapped in convertXlsxToPdf
+                throw new UncheckedIOException(e);
+            }
+        }
+
+        @Override
+        public void cell(String cellReference, String formattedValue, XSSFComment comment) {
+            row.append(formattedValue).append("  ");
+        }
+    }
+
+    /**
+     * Slides are drawn and JPEG-encoded in parallel by {@link SlideRasterizer};
+     * here we only append the finished images, in slide order, one page each.
+     */
+    private void convertPptxToPdf(MultipartFile file, OutputStream out) throws IOException {
+        try (PDDocument pdfDocument = new PDDocument(scratchStorage.pdfMemoryUsage(maxMemoryBytes))) {
+            slideRasterizer.render(file, slide -> {
+                PDPage page = new PDPage(new PDRectangle(slide.getWidth(), slide.getHeight()));
                 pdfDocument.addPage(page);
-                
-                BufferedImage img = new BufferedImage((int)pgsize.getWidth(), (int)pgsize.getHeight(), BufferedImage.TYPE_INT_RGB);
-                Graphics2D graphics = img.createGraphics();
-                graphics.setPaint(Color.white);
-                graphics.fill(new Rectangle2D.Float(0, 0, (float)pgsize.getWidth(), (float)pgsize.getHeight()));
-                slide.draw(graphics);
-                graphics.dispose();
-                
-                PDImageXObject pdImage = JPEGFactory.createFromImage(pdfDocument, img);
+
+                // The bytes are already JPEG, so they go in as-is (DCTDecode) without re-encoding
+                PDImageXObject pdImage = JPEGFactory.createFromByteArray(pdfDocument, slide.getJpeg());
                 try (PDPageContentStream contentStream = new PDPageContentStream(pdfDocument, page)) {
-                   contentStream.drawImage(pdImage, 0, 0, (float)pgsize.getWidth(), (float)pgsize.getHeight());
+                    contentStream.drawImage(pdImage, 0, 0, slide.getWidth(), slide.getHeight());
                 }
-            }
-            
-            File outputFile = File.createTempFile("converted-", ".pdf");
-            pdfDocument.save(outputFile);
-            return outputFile;
+            });
+
+            conversionMetrics.recordPages(pdfDocument.getNumberOfPages());
+            pdfDocument.save(out);
         }
     }
 
-    private File convertDocxToPdf(MultipartFile file) throws IOException {
+    private void convertDocxToPdf(MultipartFile file, OutputStream out) throws IOException {
         // Docx -> PDF with text and images (Linear flow)
         try (XWPFDocument doc = new XWPFDocument(file.getInputStream());
              PDDocument pdfDocument = new PDDocument()) {
              
+            DocumentFont font = fontRegistry.forDocument(pdfDocument);
+            PictureCache pictureCache = new PictureCache(pdfDocument);
             PDPage page = new PDPage(PDRectangle.A4);
             pdfDocument.addPage(page);
             
@@ -115,7 +211,6 @@ public class OfficeToPdfConversionService implements ConversionService {
             float margin = 50;
             
             PDPageContentStream contentStream = new PDPageContentStream(pdfDocument, page);
-            contentStream.setFont(PDType1Font.HELVETICA, 10);
             
             for (XWPFParagraph p : doc.getParagraphs()) {
                 // Check page break
@@ -124,7 +219,6 @@ public class OfficeToPdfConversionService implements ConversionService {
                     page = new PDPage(PDRectangle.A4);
                     pdfDocument.addPage(page);
                     contentStream = new PDPageContentStream(pdfDocument, page);
-                    contentStream.setFont(PDType1Font.HELVETICA, 10);
                     yOffset = 750;
                 }
 
@@ -133,10 +227,10 @@ public class OfficeToPdfConversionService implements ConversionService {
                     List<XWPFPicture> pictures = run.getEmbeddedPictures();
                     if (pictures != null && !pictures.isEmpty()) {
                         for (XWPFPicture pic : pictures) {
-                             byte[] data = pic.getPictureData().getData();
-                             // Try to create image
+                             // Try to create image (once per distinct picture, then reused)
                              try {
-                                 PDImageXObject pdImage = PDImageXObject.createFromByteArray(pdfDocument, data, "img");
+                                 PDImageXObject pdImage = pictureCache.get(pic.getPictureData());
+                                 if (pdImage == null) continue;
                                  // Scale image to fit width if needed
                                  float maxWidth = PDRectangle.A4.getWidth() - 2 * margin;
                                  float imgWidth = pdImage.getWidth();
@@ -175,7 +269,7 @@ public class OfficeToPdfConversionService implements ConversionService {
                             try {
                                 contentStream.beginText();
                                 contentStream.newLineAtOffset(margin, yOffset);
-                                contentStream.showText(sanitized);
+                                font.showText(contentStream, sanitized, 10);
                                 contentStream.endText();
                                 yOffset -= 12;
                             } catch (Exception e) {}
@@ -185,7 +279,6 @@ public class OfficeToPdfConversionService implements ConversionService {
                                 page = new PDPage(PDRectangle.A4);
                                 pdfDocument.addPage(page);
                                 contentStream = new PDPageContentStream(pdfDocument, page);
-                                contentStream.setFont(PDType1Font.HELVETICA, 10);
                                 yOffset = 750;
                             }
                         }
@@ -198,58 +291,108 @@ public class OfficeToPdfConversionService implements ConversionService {
             
             contentStream.close();
             
-            File outputFile = File.createTempFile("converted-", ".pdf");
-            pdfDocument.save(outputFile);
-            return outputFile;
+            conversionMetrics.recordPages(pdfDocument.getNumberOfPages());
+            pdfDocument.save(out);
         }
     }
 
 
-    private File createPdfFromText(List<String> lines) throws IOException {
+    private void createPdfFromText(List<String> lines, OutputStream out) throws IOException {
          // Existing simple text fallback
         PDDocument document = new PDDocument();
         try {
-            PDPage page = new PDPage(PDRectangle.A4);
-            document.addPage(page);
-            PDPageContentStream contentStream = new PDPageContentStream(document, page);
-            
-            contentStream.setFont(PDType1Font.HELVETICA, 10);
-            contentStream.beginText();
-            contentStream.newLineAtOffset(50, 750);
-            
-            int linesPerPage = 50;
-            int counter = 0;
-
+            PagedTextWriter writer = new PagedTextWriter(document, fontRegistry.forDocument(document));
             for (String line : lines) {
-                String sanitized = line.replaceAll("[\\r\\n]", " ").replaceAll("\\t", "    ");
-                try {
-                    contentStream.showText(sanitized);
-                } catch (IllegalArgumentException e) {
-                    contentStream.showText("?"); 
-                }
-                contentStream.newLineAtOffset(0, -14);
-                counter++;
+                writer.line(line);
+            }
+            writer.finish();
+            conversionMetrics.recordPages(document.getNumberOfPages());
+            document.save(out);
+        } finally {
+            document.close();
+        }
+    }
 
-                if (counter >= linesPerPage) {
-                    contentStream.endText();
-                    contentStream.close();
-                    
-                    page = new PDPage(PDRectangle.A4);
-                    document.addPage(page);
-                    contentStream = new PDPageContentStream(document, page);
-                    contentStream.setFont(PDType1Font.HELVETICA, 10);
-                    contentStream.beginText();
-                    contentStream.newLineAtOffset(50, 750);
-                    counter = 0;
+    // One XObject per distinct picture in a document. Templates repeat the same logo on every
+    // page; it is decoded and embedded once and every page's resources point at the same stream.
+    private static class PictureCache {
+        private final PDDocument document;
+        // Keyed by POI's CRC of the picture bytes; the bytes are compared too in case two collide
+        private final Map<Long, List<CachedPicture>> byChecksum = new HashMap<>();
+
+        PictureCache(PDDocument document) {
+            this.document = document;
+        }
+
+        // Null if the bytes aren't an image PDFBox can read; that's remembered as well
+        PDImageXObject get(XWPFPictureData pictureData) {
+            byte[] data = pictureData.getData();
+            List<CachedPicture> candidates = byChecksum.computeIfAbsent(pictureData.getChecksum(), k -> new ArrayList<>(1));
+            for (CachedPicture candidate : candidates) {
+                if (Arrays.equals(candidate.data, data)) {
+                    return candidate.image;
                 }
             }
+            PDImageXObject image;
+            try {
+                image = PDImageXObject.createFromByteArray(document, data, "img");
+            } catch (Exception e) {
+                image = null;
+            }
+            candidates.add(new CachedPicture(data, image));
+            return image;
+        }
+
+        private static class CachedPicture {
+            final byte[] data;
+            final PDImageXObject image;
+
+            CachedPicture(byte[] data, PDImageXObject image) {
+                this.data = data;
+                this.image = image;
+            }
+        }
+    }
+
+    // Writes lines top to bottom at 10pt, starting a new page every LINES_PER_PAGE lines
+    private static class PagedTextWriter {
+        private static final int LINES_PER_PAGE = 50;
+
+        private final PDDocument document;
+        private final DocumentFont font;
+        private PDPageContentStream contentStream;
+        private int counter;
+
+        PagedTextWriter(PDDocument document, DocumentFont font) throws IOException {
+            this.document = document;
+            this.font = font;
+            newPage();
+        }
+
+        void line(String line) throws IOException {
+            if (counter >= LINES_PER_PAGE) {
+                contentStream.endText();
+                contentStream.close();
+                newPage();
+            }
+            String sanitized = line.replaceAll("[\\r\\n]", " ").replaceAll("\\t", "    ");
+            font.showText(contentStream, sanitized, 10);
+            contentStream.newLineAtOffset(0, -14);
+            counter++;
+        }
+
+        void finish() throws IOException {
             contentStream.endText();
             contentStream.close();
-            File outputFile = File.createTempFile("converted-", ".pdf");
-            document.save(outputFile);
-            return outputFile;
-        } finally {
-            document.close();
+        }
+
+        private void newPage() throws IOException {
+            PDPage page = new PDPage(PDRectangle.A4);
+            document.addPage(page);
+            contentStream = new PDPageContentStream(document, page);
+            contentStream.beginText();
+            contentStream.newLineAtOffset(50, 750);
+            counter = 0;
         }
     }
 
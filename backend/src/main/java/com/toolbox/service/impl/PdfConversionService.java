@@ -1,21 +1,31 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.ConversionMetrics;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.scratch.ScratchStorage;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 import java.nio.file.Files;
 import java.util.UUID;
 
 @Service
-public class PdfConversionService implements ConversionService {
+public class PdfConversionService implements StreamingConversionService {
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -25,17 +35,19 @@ public class PdfConversionService implements ConversionService {
 
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
+        return scratchStorage.writeFile("converted-", ".pdf", out -> convert(file, targetFormat, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
         if (!supports(getFileExtension(file.getOriginalFilename()), targetFormat)) {
             throw new IllegalArgumentException("Unsupported conversion type");
         }
 
         PDDocument document = new PDDocument();
         try {
-            // Create a temporary file for the image
-            File tempImage = File.createTempFile("upload-", file.getOriginalFilename());
-            file.transferTo(tempImage);
-
-            PDImageXObject pdImage = PDImageXObject.createFromFile(tempImage.getAbsolutePath(), document);
+            // Decode from the upload bytes directly, no need for another temp copy
+            PDImageXObject pdImage = PDImageXObject.createFromByteArray(document, file.getBytes(), file.getOriginalFilename());
             
             // Auto-rotate logic
             boolean isLandscape = pdImage.getWidth() > pdImage.getHeight();
@@ -69,13 +81,9 @@ public class PdfConversionService implements ConversionService {
                 
                 contentStream.drawImage(pdImage, startX, startY, newWidth, newHeight);
             }
-            
-            // Cleanup temp image
-            tempImage.delete();
 
-            File outputFile = File.createTempFile("converted-", ".pdf");
-            document.save(outputFile);
-            return outputFile;
+            conversionMetrics.recordPages(document.getNumberOfPages());
+            document.save(out);
         } finally {
             document.close();
         }
@@ -1,57 +1,122 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.ConversionMetrics;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.PageRanges;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.text.PDFTextStripper;
 import org.apache.poi.ss.usermodel.Cell;
 import org.apache.poi.ss.usermodel.Row;
 import org.apache.poi.ss.usermodel.Sheet;
-import org.apache.poi.ss.usermodel.Workbook;
-import org.apache.poi.xssf.usermodel.XSSFWorkbook;
+import org.apache.poi.ss.SpreadsheetVersion;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Service
-public class PdfToExcelConversionService implements ConversionService {
+public class PdfToExcelConversionService implements StreamingConversionService {
+
+    private static final String SHEET_NAME = "Converted PDF";
+
+    private static final int ROW_WINDOW = 100;
+
+    private static final int MAX_ROWS = SpreadsheetVersion.EXCEL2007.getMaxRows();
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
         return "pdf".equalsIgnoreCase(sourceFormat) && ("xlsx".equalsIgnoreCase(targetFormat) || "xls".equalsIgnoreCase(targetFormat));
     }
 
+    @Override
+    public boolean supportsPageSelection() {
+        return true;
+    }
+
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
-        try (PDDocument pdfDocument = PDDocument.load(file.getInputStream())) {
+        return convert(file, targetFormat, PageRanges.all());
+    }
+
+    @Override
+    public File convert(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        return scratchStorage.writeFile("converted-", "." + targetFormat, out -> convert(file, targetFormat, pages, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        convert(file, targetFormat, PageRanges.all(), out);
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, PageRanges pages, OutputStream out)
+            throws IOException {
+        try (PDDocument pdfDocument = load(file)) {
+            int pageCount = pdfDocument.getNumberOfPages();
+            int[] selected = pages.resolve(pageCount);
+            if (selected.length == 0) {
+                throw new IllegalArgumentException("No pages selected, document has " + pageCount + " pages");
+            }
+            conversionMetrics.recordPages(selected.length);
             PDFTextStripper stripper = new PDFTextStripper();
-            String text = stripper.getText(pdfDocument);
 
-            try (Workbook workbook = new XSSFWorkbook()) {
-                Sheet sheet = workbook.createSheet("Converted PDF");
-                
-                String[] lines = text.split("\\r?\\n");
+            // Only ROW_WINDOW rows are kept in memory, older ones are flushed to a (compressed) temp file
+            SXSSFWorkbook workbook = new SXSSFWorkbook(ROW_WINDOW);
+            workbook.setCompressTempFiles(true);
+            try {
+                Sheet sheet = workbook.createSheet(SHEET_NAME);
                 int rowNum = 0;
-                for (String line : lines) {
-                    Row row = sheet.createRow(rowNum++);
-                    // Attempt to split by spaces or tabs to simulate columns, or just put in one cell
-                    // Simple approach: one cell per line, or simple space splitting
-                    String[] parts = line.split("\\s{2,}"); // Split by 2 or more spaces
-                    int colNum = 0;
-                    for (String part : parts) {
-                        Cell cell = row.createCell(colNum++);
-                        cell.setCellValue(part);
+                // One page of text at a time, so memory doesn't grow with the page count
+                for (int pageIndex : selected) {
+                    // The stripper counts pages from 1
+                    stripper.setStartPage(pageIndex + 1);
+                    stripper.setEndPage(pageIndex + 1);
+                    String text = stripper.getText(pdfDocument);
+                    if (text.isEmpty()) {
+                        continue;
+                    }
+                    for (String line : text.split("\\r?\\n")) {
+                        if (rowNum == MAX_ROWS) {
+                            // Excel can't open a sheet past its row limit, carry on in a new one
+                            sheet = workbook.createSheet(SHEET_NAME + " " + (workbook.getNumberOfSheets() + 1));
+                            rowNum = 0;
+                        }
+                        Row row = sheet.createRow(rowNum++);
+                        // Attempt to split by spaces or tabs to simulate columns, or just put in one cell
+                        String[] parts = line.split("\\s{2,}"); // Split by 2 or more spaces
+                        int colNum = 0;
+                        for (String part : parts) {
+                            Cell cell = row.createCell(colNum++);
+                            cell.setCellValue(part);
+                        }
                     }
                 }
 
-                File outputFile = File.createTempFile("converted-", "." + targetFormat);
-                try (FileOutputStream out = new FileOutputStream(outputFile)) {
-                    workbook.write(out);
-                }
-                return outputFile;
+                workbook.write(out);
+            } finally {
+                workbook.dispose();
+                workbook.close();
             }
         }
     }
+
+    // Only the pages being extracted need to be parsed, so don't pull a spooled upload into memory
+    private PDDocument load(MultipartFile file) throws IOException {
+        if (file instanceof ConversionInput) {
+            return PDDocument.load(((ConversionInput) file).getPath().toFile());
+        }
+        return PDDocument.load(file.getInputStream());
+    }
 }
@@ -1,9 +1,14 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.ConversionMetrics;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.PageRanges;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.pdfbox.rendering.PDFRenderer;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
@@ -11,9 +16,16 @@ import javax.imageio.ImageIO;
 import java.awt.image.BufferedImage;
 import java.io.File;
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Service
-public class PdfToImageConversionService implements ConversionService {
+public class PdfToImageConversionService implements StreamingConversionService {
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -21,23 +33,72 @@ public class PdfToImageConversionService implements ConversionService {
                ("png".equalsIgnoreCase(targetFormat) || "jpg".equalsIgnoreCase(targetFormat));
     }
 
+    @Override
+    public int cost(String sourceFormat, String targetFormat) {
+        // Only one page, but at 300 DPI
+        return 2;
+    }
+
+    @Override
+    public boolean supportsPageSelection() {
+        return true;
+    }
+
+    // One image per conversion; /api/tools/pdf-to-images is the way to get several pages
+    @Override
+    public int maxSelectedPages() {
+        return 1;
+    }
+
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
-        try (PDDocument document = PDDocument.load(file.getInputStream())) {
+        return convert(file, targetFormat, PageRanges.all());
+    }
+
+    @Override
+    public File convert(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        return scratchStorage.writeFile("converted-", "." + targetFormat, out -> convert(file, targetFormat, pages, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        convert(file, targetFormat, PageRanges.all(), out);
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, PageRanges pages, OutputStream out)
+            throws IOException {
+        try (PDDocument document = load(file)) {
+            // One image per conversion: the selected page, or page 1 without a selection
+            int pageCount = document.getNumberOfPages();
+            int[] selected = pages.resolve(pageCount);
+            if (selected.length == 0) {
+                throw new IllegalArgumentException("No pages selected, document has " + pageCount + " pages");
+            }
+            if (!pages.isAll() && selected.length > maxSelectedPages()) {
+                throw new IllegalArgumentException("Select a single page to convert to an image, "
+                        + selected.length + " selected");
+            }
             PDFRenderer pdfRenderer = new PDFRenderer(document);
             
-            // Render first page only (page index 0) at 300 DPI
-            BufferedImage bim = pdfRenderer.renderImageWithDPI(0, 300, 
+            // Render at 300 DPI
+            BufferedImage bim = pdfRenderer.renderImageWithDPI(selected[0], 300, 
                 targetFormat.equalsIgnoreCase("jpg") ? ImageType.RGB : ImageType.ARGB);
 
-            File outputFile = File.createTempFile("converted-", "." + targetFormat);
-            
             // ImageIO needs "jpeg" not "jpg" strictly speaking? "jpg" usually works but "jpeg" is formal. 
             // We'll pass the format name directly, usually safe.
             String formatName = targetFormat.equalsIgnoreCase("jpg") ? "jpeg" : targetFormat;
             
-            ImageIO.write(bim, formatName, outputFile);
-            return outputFile;
+            ImageIO.write(bim, formatName, out);
+            conversionMetrics.recordPages(1);
+        }
+    }
+
+    // Only the page being rendered needs to be parsed, so don't pull a spooled upload into memory
+    private PDDocument load(MultipartFile file) throws IOException {
+        if (file instanceof ConversionInput) {
+            return PDDocument.load(((ConversionInput) file).getPath().toFile());
         }
+        return PDDocument.load(file.getInputStream());
     }
 }
@@ -1,68 +1,87 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
-import org.apache.pdfbox.pdmodel.PDDocument;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.PdfPageRasterizer;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.PageRanges;
 import org.apache.pdfbox.rendering.ImageType;
-import org.apache.pdfbox.rendering.PDFRenderer;
 import org.apache.poi.sl.usermodel.PictureData;
 
 import org.apache.poi.xslf.usermodel.XMLSlideShow;
 import org.apache.poi.xslf.usermodel.XSLFPictureData;
 import org.apache.poi.xslf.usermodel.XSLFPictureShape;
 import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import javax.imageio.ImageIO;
 import java.awt.geom.Rectangle2D;
-import java.awt.image.BufferedImage;
 
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
+import java.io.OutputStream;
 
 @Service
-public class PdfToPptConversionService implements ConversionService {
+public class PdfToPptConversionService implements StreamingConversionService {
+
+    @Autowired
+    private PdfPageRasterizer pdfPageRasterizer;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
         return "pdf".equalsIgnoreCase(sourceFormat) && ("pptx".equalsIgnoreCase(targetFormat) || "ppt".equalsIgnoreCase(targetFormat));
     }
 
+    @Override
+    public int cost(String sourceFormat, String targetFormat) {
+        // Every page is rendered at 150 DPI and JPEG encoded
+        return 3;
+    }
+
+    @Override
+    public boolean supportsPageSelection() {
+        return true;
+    }
+
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
-        try (PDDocument pdfDocument = PDDocument.load(file.getInputStream());
-             XMLSlideShow ppt = new XMLSlideShow()) {
-            
-            PDFRenderer pdfRenderer = new PDFRenderer(pdfDocument);
-            int pages = pdfDocument.getNumberOfPages();
+        return convert(file, targetFormat, PageRanges.all());
+    }
+
+    @Override
+    public File convert(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        return scratchStorage.writeFile("converted-", "." + targetFormat, out -> convert(file, targetFormat, pages, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        convert(file, targetFormat, PageRanges.all(), out);
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, PageRanges pages, OutputStream out)
+            throws IOException {
+        try (XMLSlideShow ppt = new XMLSlideShow()) {
             
             // Standard Slide Size (roughly)
             float slideWidth = 720f; 
             float slideHeight = 540f; 
             ppt.setPageSize(new java.awt.Dimension((int)slideWidth, (int)slideHeight));
 
-            for (int i = 0; i < pages; i++) {
-                BufferedImage bim = pdfRenderer.renderImageWithDPI(i, 150, ImageType.RGB);
-                
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                ImageIO.write(bim, "jpeg", os);
-                byte[] pictureData = os.toByteArray();
-                
+            // Render + JPEG encode runs on the render pool; slides are added back in page order
+            pdfPageRasterizer.render(file, pages, 150, ImageType.RGB, "jpeg", true, page -> {
                 XSLFSlide slide = ppt.createSlide();
-                XSLFPictureData pd = ppt.addPicture(pictureData, PictureData.PictureType.JPEG);
+                XSLFPictureData pd = ppt.addPicture(page.getData(), PictureData.PictureType.JPEG);
                 XSLFPictureShape pic = slide.createPicture(pd);
                 
                 // Scale to fit slide
                 pic.setAnchor(new Rectangle2D.Double(0, 0, slideWidth, slideHeight));
-            }
+            });
 
-            File outputFile = File.createTempFile("converted-", "." + targetFormat);
-            try (FileOutputStream out = new FileOutputStream(outputFile)) {
-                ppt.write(out);
-            }
-            return outputFile;
+            ppt.write(out);
         }
     }
 }
@@ -1,53 +1,74 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
-import org.apache.pdfbox.pdmodel.PDDocument;
-import org.apache.pdfbox.rendering.PDFRenderer;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.PdfPageRasterizer;
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.PageRanges;
 import org.apache.pdfbox.rendering.ImageType;
 import org.apache.poi.util.Units;
 import org.apache.poi.xwpf.usermodel.ParagraphAlignment;
 import org.apache.poi.xwpf.usermodel.XWPFDocument;
 import org.apache.poi.xwpf.usermodel.XWPFParagraph;
 import org.apache.poi.xwpf.usermodel.XWPFRun;
+import org.springframework.beans.factory.annotation.Autowired;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
-import java.awt.image.BufferedImage;
 import java.io.ByteArrayInputStream;
-import java.io.ByteArrayOutputStream;
 import java.io.File;
-import java.io.FileOutputStream;
 import java.io.IOException;
-import javax.imageio.ImageIO;
+import java.io.OutputStream;
 
 @Service
-public class PdfToWordConversionService implements ConversionService {
+public class PdfToWordConversionService implements StreamingConversionService {
+
+    @Autowired
+    private PdfPageRasterizer pdfPageRasterizer;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
         return "pdf".equalsIgnoreCase(sourceFormat) && ("docx".equalsIgnoreCase(targetFormat) || "doc".equalsIgnoreCase(targetFormat));
     }
 
+    @Override
+    public int cost(String sourceFormat, String targetFormat) {
+        // Renders and re-encodes every page
+        return 3;
+    }
+
+    @Override
+    public boolean supportsPageSelection() {
+        return true;
+    }
+
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
+        return convert(file, targetFormat, PageRanges.all());
+    }
+
+    @Override
+    public File convert(MultipartFile file, String targetFormat, PageRanges pages) throws IOException {
+        return scratchStorage.writeFile("converted-", "." + targetFormat, out -> convert(file, targetFormat, pages, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        convert(file, targetFormat, PageRanges.all(), out);
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, PageRanges pages, OutputStream out)
+            throws IOException {
         // High fidelity conversion: Render PDF pages as images and insert into Word
         // This ensures all images, fonts, and layouts are preserved exactly visually.
         
-        try (PDDocument pdfDocument = PDDocument.load(file.getInputStream());
-             XWPFDocument wordDocument = new XWPFDocument()) {
-            
-            PDFRenderer pdfRenderer = new PDFRenderer(pdfDocument);
-            int pages = pdfDocument.getNumberOfPages();
-            
-            for (int i = 0; i < pages; i++) {
-                // Render page
-                // Scale to 100 DPI for faster performance (still good for screen/print)
-                BufferedImage bim = pdfRenderer.renderImageWithDPI(i, 100, ImageType.RGB);
-                
-                ByteArrayOutputStream os = new ByteArrayOutputStream();
-                ImageIO.write(bim, "jpeg", os);
-                ByteArrayInputStream is = new ByteArrayInputStream(os.toByteArray());
-                
+        try (XWPFDocument wordDocument = new XWPFDocument()) {
+            // Pages are rendered in parallel but delivered in page order
+            // Scale to 100 DPI for faster performance (still good for screen/print)
+            pdfPageRasterizer.render(file, pages, 100, ImageType.RGB, "jpeg", true, page -> {
                 XWPFParagraph p = wordDocument.createParagraph();
                 p.setAlignment(ParagraphAlignment.CENTER);
                 XWPFRun r = p.createRun();
@@ -55,19 +76,16 @@ public class PdfToWordConversionService implements ConversionService {
                 // Add picture
                 // A4 width approx 595 pts. Word margins take some. Let's aim for ~500 width
                 try {
-                     r.addPicture(is, XWPFDocument.PICTURE_TYPE_JPEG, "page" + i, Units.toEMU(500), Units.toEMU(500 * bim.getHeight() / bim.getWidth()));
+                     r.addPicture(new ByteArrayInputStream(page.getData()), XWPFDocument.PICTURE_TYPE_JPEG, "page" + page.getPageIndex(),
+                             Units.toEMU(500), Units.toEMU(500 * page.getHeight() / page.getWidth()));
                 } catch (Exception e) {
                     // Fallback or skip
                 }
                 
                 r.addBreak(); // Page break logic would be better but this stacks images
-            }
+            });
 
-            File outputFile = File.createTempFile("converted-", "." + targetFormat);
-            try (FileOutputStream out = new FileOutputStream(outputFile)) {
-                wordDocument.write(out);
-            }
-            return outputFile;
+            wordDocument.write(out);
         }
     }
 }
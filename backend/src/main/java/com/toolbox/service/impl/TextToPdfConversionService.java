@@ -1,21 +1,54 @@
 package com.toolbox.service.impl;
 
-import com.toolbox.service.ConversionService;
+import com.toolbox.service.ConversionMetrics;
+import com.toolbox.service.StreamingConversionService;
+import com.toolbox.service.font.DocumentFont;
+import com.toolbox.service.font.FontRegistry;
+import com.toolbox.service.scratch.ScratchStorage;
 import org.apache.pdfbox.pdmodel.PDDocument;
 import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.springframework.beans.factory.annotation.Autowired;
+import org.springframework.beans.factory.annotation.Value;
 import org.springframework.stereotype.Service;
 import org.springframework.web.multipart.MultipartFile;
 
 import java.io.BufferedReader;
 import java.io.File;
-import java.io.InputStreamReader;
 import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.InterruptedIOException;
+import java.io.OutputStream;
+import java.nio.charset.StandardCharsets;
 
+/**
+ * Plain text to PDF, laid out as it streams in: characters are read in
+ * blocks, lines are wrapped at the last space that fits the measured width
+ * (or mid-word if a word is wider than the page), and each page's content
+ * stream is closed as soon as the page is full. Page content goes through
+ * PDFBox's scratch file, so heap use stays flat however long the input is.
+ */
 @Service
-public class TextToPdfConversionService implements ConversionService {
+public class TextToPdfConversionService implements StreamingConversionService {
+
+    private static final float FONT_SIZE = 10;
+    private static final float LEADING = 12;
+    private static final float MARGIN = 40;
+    private static final int TAB_WIDTH = 4;
+
+    @Autowired
+    private ScratchStorage scratchStorage;
+
+    @Autowired
+    private ConversionMetrics conversionMetrics;
+
+    @Autowired
+    private FontRegistry fontRegistry;
+
+    // Heap budget for the output document; page content beyond this spills to scratch
+    @Value("${toolbox.text.max-memory-bytes:16777216}")
+    private long maxMemoryBytes;
 
     @Override
     public boolean supports(String sourceFormat, String targetFormat) {
@@ -24,60 +57,175 @@ public class TextToPdfConversionService implements ConversionService {
 
     @Override
     public File convert(MultipartFile file, String targetFormat) throws IOException {
-        PDDocument document = new PDDocument();
-        try {
-            PDPage page = new PDPage(PDRectangle.A4);
-            document.addPage(page);
+        return scratchStorage.writeFile("converted-", ".pdf", out -> convert(file, targetFormat, out));
+    }
+
+    @Override
+    public void convert(MultipartFile file, String targetFormat, OutputStream out) throws IOException {
+        try (PDDocument document = new PDDocument(scratchStorage.pdfMemoryUsage(maxMemoryBytes));
+             BufferedReader reader = new BufferedReader(
+                     new InputStreamReader(file.getInputStream(), StandardCharsets.UTF_8))) {
 
-            try (PDPageContentStream contentStream = new PDPageContentStream(document, page)) {
-                contentStream.beginText();
-                contentStream.setFont(PDType1Font.HELVETICA, 12);
-                contentStream.newLineAtOffset(25, 750);
-                
-                try (BufferedReader reader = new BufferedReader(new InputStreamReader(file.getInputStream()))) {
-                    String line;
-                    int yOffset = 750;
-                    while ((line = reader.readLine()) != null) {
-                        // Basic handling for wrapping could be added here, but simple line printing for now
-                        // PDFBox requires sanitized strings (no newlines in showText)
-                        // Also must handle specific charset issues, but standard ASCII is safe for HELVETICA
-                        // A more robust solution involves loading a TTF font.
-                        
-                        // We will skip lines that might cause errors for this simple MVP
-                         try {
-                            contentStream.showText(sanitize(line));
-                            contentStream.newLineAtOffset(0, -15);
-                            yOffset -= 15;
-                            if (yOffset < 50) { // New page if header/footer margin hit
-                                contentStream.endText();
-                                contentStream.close(); // Close current
-                                
-                                PDPage newPage = new PDPage(PDRectangle.A4);
-                                document.addPage(newPage);
-                                // Re-open on new page (cannot re-assign variable effectively inside try-with-resources differently)
-                                // This simple logic flaws in try-with. 
-                                // Simplified: Just print one page for MVP or handle simpler.
-                                break; 
-                            }
-                        } catch (IllegalArgumentException e) {
-                            // Ignore unsupported chars
+            TextLayout layout = new TextLayout(document, fontRegistry.forDocument(document));
+            char[] buffer = new char[8192];
+            char highSurrogate = 0;
+            int read;
+            while ((read = reader.read(buffer)) != -1) {
+                for (int i = 0; i < read; i++) {
+                    char c = buffer[i];
+                    // A surrogate pair can straddle two reads, so hold on to the high half
+                    if (highSurrogate != 0) {
+                        char high = highSurrogate;
+                        highSurrogate = 0;
+                        if (Character.isLowSurrogate(c)) {
+                            layout.append(Character.toCodePoint(high, c));
+                            continue;
                         }
+                        layout.append('?');
                     }
+                    if (Character.isHighSurrogate(c)) {
+                        highSurrogate = c;
+                    } else {
+                        layout.append(c);
+                    }
+                }
+                if (Thread.interrupted()) {
+                    throw new InterruptedIOException("Text conversion cancelled");
                 }
-                // Check if stream is still open? try-with-resources handles close.
-                // Logic needed to be simpler for try-with-resources:
-                if (contentStream != null) contentStream.endText(); 
             }
+            layout.finish();
 
-            File outputFile = File.createTempFile("converted-", ".pdf");
-            document.save(outputFile);
-            return outputFile;
-        } finally {
-            document.close();
+            conversionMetrics.recordPages(document.getNumberOfPages());
+            document.save(out);
         }
     }
-    
-    private String sanitize(String s) {
-        return s.replaceAll("[\\n\\r]", "");
+
+    // Wraps and paginates a stream of code points. Holds at most one line of text at a time.
+    private static class TextLayout {
+        private final PDDocument document;
+        private final DocumentFont font;
+        private final float top;
+        private final float maxWidth;
+
+        private final StringBuilder line = new StringBuilder();
+        private float lineWidth;
+        // Index just past the last space in the line, where we'd rather wrap
+        private int wrapAt = -1;
+        private boolean pendingCarriageReturn;
+
+        private PDPageContentStream contentStream;
+        private float y;
+
+        TextLayout(PDDocument document, DocumentFont font) {
+            this.document = document;
+            this.font = font;
+            this.top = PDRectangle.A4.getHeight() - MARGIN - FONT_SIZE;
+            this.maxWidth = PDRectangle.A4.getWidth() - 2 * MARGIN;
+        }
+
+        void append(int codePoint) throws IOException {
+            // \r, \n and \r\n all end a line
+            if (pendingCarriageReturn) {
+                pendingCarriageReturn = false;
+                if (codePoint == '\n') return;
+            }
+            switch (codePoint) {
+                case '\r':
+                    pendingCarriageReturn = true;
+                    endLine();
+                    return;
+                case '\n':
+                    endLine();
+                    return;
+                case '\f':
+                    // Form feed: the rest goes on a fresh page
+                    if (line.length() > 0) endLine();
+                    endPage();
+                    return;
+                case '\t':
+                    int spaces = TAB_WIDTH - line.length() % TAB_WIDTH;
+                    for (int i = 0; i < spaces; i++) {
+                        append(' ');
+                    }
+                    return;
+                default:
+                    if (Character.isISOControl(codePoint)) return;
+            }
+
+            float width = font.width(codePoint, FONT_SIZE);
+            if (lineWidth + width > maxWidth && line.length() > 0) {
+                wrap();
+                // A wrapped line doesn't start with the space that broke it
+                if (codePoint == ' ' && line.length() == 0) return;
+            }
+            line.appendCodePoint(codePoint);
+            lineWidth += width;
+            if (codePoint == ' ') {
+                wrapAt = line.length();
+            }
+        }
+
+        void finish() throws IOException {
+            if (line.length() > 0) {
+                endLine();
+            }
+            if (document.getNumberOfPages() == 0) {
+                // Empty input still makes a (blank) one-page PDF
+                newPage();
+            }
+            endPage();
+        }
+
+        private void wrap() throws IOException {
+            if (wrapAt <= 0 || wrapAt == line.length()) {
+                // Nowhere better to break (one long word, or we're already at a space): break here
+                endLine();
+                return;
+            }
+            String rest = line.substring(wrapAt);
+            line.setLength(wrapAt);
+            endLine();
+            line.append(rest);
+            lineWidth = font.width(rest, FONT_SIZE);
+        }
+
+        private void endLine() throws IOException {
+            if (contentStream == null || y < MARGIN) {
+                endPage();
+                newPage();
+            }
+            if (line.length() > 0) {
+                font.showText(contentStream, stripTrailingSpaces(line), FONT_SIZE);
+            }
+            contentStream.newLineAtOffset(0, -LEADING);
+            y -= LEADING;
+            line.setLength(0);
+            lineWidth = 0;
+            wrapAt = -1;
+        }
+
+        private void newPage() throws IOException {
+            PDPage page = new PDPage(PDRectangle.A4);
+            document.addPage(page);
+            contentStream = new PDPageContentStream(document, page);
+            contentStream.beginText();
+            contentStream.newLineAtOffset(MARGIN, top);
+            y = top;
+        }
+
+        private void endPage() throws IOException {
+            if (contentStream != null) {
+                contentStream.endText();
+                // Closing flushes the page content into the document's scratch-backed stream
+                contentStream.close();
+                contentStream = null;
+            }
+        }
+
+        private static String stripTrailingSpaces(CharSequence text) {
+            int end = text.length();
+            while (end > 0 && text.charAt(end - 1) == ' ') end--;
+            return text.subSequence(0, end).toString();
+        }
     }
 }
@@ -0,0 +1,15 @@
+package com.toolbox.service.scratch;
+
+import java.io.IOException;
+
+/**
+ * Thrown when a write would push scratch usage past the per-request or the
+ * global quota. Extends IOException so converters propagate it like any other
+ * write failure.
+ */
+public class ScratchQuotaExceededException extends IOException {
+
+    public ScratchQuotaExceededException(String message) {
+        super(message);
+    }
+}
@@ -0,0 +1,273 @@
+package com.toolbox.service.scratch;
+
+import java.io.File;
+import java.io.FilterOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Instant;
+import java.util.Comparator;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * The scratch files belonging to one request or job. Every byte written
+ * through {@link #newOutputStream(File)} (or reported via {@link #track(File)})
+ * counts against both this space's quota and the global one, and
+ * {@link #close()} deletes whatever is still left.
+ *
+ * Libraries that create their own temp files (PDFBox's scratch file, POI's
+ * SXSSF sheets) get a {@link #tempDir() directory} of the space instead;
+ * its contents are counted when the space is reconciled and deleted with it.
+ */
+public class ScratchSpace implements AutoCloseable {
+
+    private final ScratchStorage storage;
+    private final String label;
+    private final long quotaBytes;
+    private final Instant openedAt = Instant.now();
+
+    // Tracked file -> bytes accounted for it so far
+    private final Map<Path, Long> files = new ConcurrentHashMap<>();
+    private final AtomicLong usedBytes = new AtomicLong();
+    private volatile Path tempDir;
+    private volatile boolean closed;
+
+    ScratchSpace(ScratchStorage storage, String label, long quotaBytes) {
+        this.storage = storage;
+        this.label = label;
+        this.quotaBytes = quotaBytes;
+    }
+
+    /** Creates an empty file under the scratch root, owned by this space. */
+    public File createFile(String prefix, String suffix) throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Scratch space " + label + " is closed");
+        }
+        reserve(0);
+        Path path = Files.createTempFile(storage.getRoot(), prefix, suffix);
+        files.put(path, 0L);
+        return path.toFile();
+    }
+
+    /**
+     * A directory under the scratch root owned by this space, created on
+     * first use, for third-party code that picks its own temp file names.
+     */
+    public synchronized File tempDir() throws IOException {
+        if (closed) {
+            throw new IllegalStateException("Scratch space " + label + " is closed");
+        }
+        if (tempDir == null) {
+            tempDir = Files.createTempDirectory(storage.getRoot(), label + "-");
+        }
+        return tempDir.toFile();
+    }
+
+    /** What is left of this space's quota (and of the global one). */
+    public long getRemainingBytes() {
+        return Math.max(0, Math.min(quotaBytes - usedBytes.get(), storage.getMaxBytes() - storage.getBytesInUse()));
+    }
+
+    /**
+     * Opens {@code file} for writing, counting every byte against the quotas.
+     * Writing past a quota fails with {@link ScratchQuotaExceededException}.
+     */
+    public OutputStream newOutputStream(File file) throws IOException {
+        Path path = file.toPath();
+        release(path);
+        files.put(path, 0L);
+        OutputStream out = Files.newOutputStream(path);
+        return new FilterOutputStream(out) {
+            @Override
+            public void write(int b) throws IOException {
+                account(path, 1);
+                out.write(b);
+            }
+
+            @Override
+            public void write(byte[] b, int off, int len) throws IOException {
+                account(path, len);
+                out.write(b, off, len);
+            }
+        };
+    }
+
+    /**
+     * Accounts for a file written by code that doesn't go through
+     * {@link #newOutputStream(File)} (third-party writers that insist on a path).
+     */
+    public void track(File file) throws IOException {
+        Path path = file.toPath();
+        long size = Files.exists(path) ? Files.size(path) : 0;
+        long previous = files.getOrDefault(path, 0L);
+        if (size > previous) {
+            account(path, size - previous);
+        } else {
+            files.put(path, size);
+            usedBytes.addAndGet(size - previous);
+            storage.adjustUsed(size - previous);
+        }
+    }
+
+    /**
+     * Counts {@code bytes} about to be written into {@code file} by positional
+     * writes, which neither a stream nor the file size can account for (a
+     * sparse file filled out of order). Fails with
+     * {@link ScratchQuotaExceededException} if they don't fit.
+     */
+    public void reserve(File file, long bytes) throws IOException {
+        account(file.toPath(), bytes);
+    }
+
+    /** Gives back bytes {@link #reserve(File, long) reserved} for a write that didn't happen. */
+    public void unreserve(File file, long bytes) {
+        if (files.computeIfPresent(file.toPath(), (path, accounted) -> accounted - bytes) != null) {
+            usedBytes.addAndGet(-bytes);
+            storage.adjustUsed(-bytes);
+        }
+    }
+
+    /** Deletes a file early, giving its bytes back to the quota. */
+    public void delete(File file) {
+        Path path = file.toPath();
+        release(path);
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // The reaper retries anything left behind
+        }
+    }
+
+    /**
+     * Stops tracking {@code file} without deleting it, for results whose
+     * lifetime is managed elsewhere (e.g. moved into the result cache).
+     */
+    public void detach(File file) {
+        release(file.toPath());
+    }
+
+    public boolean owns(Path path) {
+        return files.containsKey(path);
+    }
+
+    public long getUsedBytes() {
+        return usedBytes.get();
+    }
+
+    public int getFileCount() {
+        return files.size();
+    }
+
+    public String getLabel() {
+        return label;
+    }
+
+    public Instant getOpenedAt() {
+        return openedAt;
+    }
+
+    /**
+     * Drops files that were deleted behind our back and picks up whatever
+     * libraries wrote to the temp dir, so the gauges and quotas stay honest.
+     */
+    void reconcile() {
+        for (Path path : files.keySet()) {
+            if (!Files.exists(path)) {
+                release(path);
+            }
+        }
+        // Synchronized with close(), so nothing is counted for a space that already gave its bytes back
+        synchronized (this) {
+            if (tempDir == null || closed) {
+                return;
+            }
+            try (Stream<Path> written = Files.walk(tempDir)) {
+                written.filter(Files::isRegularFile).forEach(this::measure);
+            } catch (IOException ignored) {
+                // Files come and go while we walk; next round gets them
+            }
+        }
+    }
+
+    Set<Path> trackedPaths() {
+        return files.keySet();
+    }
+
+    Path getTempDir() {
+        return tempDir;
+    }
+
+    @Override
+    public synchronized void close() {
+        if (closed) {
+            return;
+        }
+        closed = true;
+        for (Path path : files.keySet()) {
+            release(path);
+            try {
+                Files.deleteIfExists(path);
+            } catch (IOException ignored) {
+                // Left for the reaper
+            }
+        }
+        if (tempDir != null) {
+            deleteTree(tempDir);
+        }
+        storage.closed(this);
+    }
+
+    /** Deletes a directory and everything in it, leaving whatever can't be deleted yet to the reaper. */
+    static void deleteTree(Path dir) {
+        try (Stream<Path> paths = Files.walk(dir)) {
+            paths.sorted(Comparator.reverseOrder()).forEach(path -> {
+                try {
+                    Files.deleteIfExists(path);
+                } catch (IOException ignored) {
+                    // Left for the reaper
+                }
+            });
+        } catch (IOException ignored) {
+            // Already gone
+        }
+    }
+
+    // Counts a file some library wrote on its own. Already on disk, so it's recorded even past the quota
+    private void measure(Path path) {
+        try {
+            long size = Files.size(path);
+            Long previous = files.put(path, size);
+            long delta = size - (previous != null ? previous : 0);
+            usedBytes.addAndGet(delta);
+            storage.adjustUsed(delta);
+        } catch (IOException ignored) {
+            // Deleted while we looked
+        }
+    }
+
+    private void account(Path path, long bytes) throws IOException {
+        reserve(bytes);
+        files.merge(path, bytes, Long::sum);
+    }
+
+    private void reserve(long bytes) throws IOException {
+        if (usedBytes.get() + bytes > quotaBytes) {
+            throw new ScratchQuotaExceededException("Scratch quota of " + quotaBytes + " bytes exceeded for " + label);
+        }
+        storage.reserve(bytes);
+        usedBytes.addAndGet(bytes);
+    }
+
+    private void release(Path path) {
+        Long accounted = files.remove(path);
+        if (accounted != null && accounted > 0) {
+            usedBytes.addAndGet(-accounted);
+            storage.adjustUsed(-accounted);
+        }
+    }
+}
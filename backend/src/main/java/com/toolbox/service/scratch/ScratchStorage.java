@@ -0,0 +1,287 @@
+package com.toolbox.service.scratch;
+
+import jakarta.annotation.PostConstruct;
+import jakarta.annotation.PreDestroy;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.poi.util.TempFile;
+import org.apache.poi.util.TempFileCreationStrategy;
+import org.springframework.beans.factory.annotation.Value;
+import org.springframework.scheduling.annotation.Scheduled;
+import org.springframework.stereotype.Service;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.time.Duration;
+import java.time.Instant;
+import java.util.HashSet;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.stream.Stream;
+
+/**
+ * Single home for every temporary file the converters write. Files live under
+ * one configurable root (point it at a tmpfs such as /dev/shm to keep scratch
+ * I/O off the disk), are grouped into {@link ScratchSpace}s that are deleted as
+ * a unit, and count against per-space and global byte quotas.
+ *
+ * Converters don't receive a space explicitly; the job runner binds one to
+ * the worker thread with {@link #runIn} and {@link #createFile} /
+ * {@link #newOutputStream} use it. Work outside a bound space lands in a shared
+ * space whose files are reaped by age. POI's temp files (SXSSF sheets) and
+ * PDFBox's scratch files ({@link #pdfMemoryUsage}) go to the current space's
+ * temp dir, so they count against the same quotas.
+ *
+ * Several instances may share the configured dir (rolling deploys, containers
+ * sharing /tmp), so each one works in its own {@code instance-*} subdirectory
+ * and keeps its mtime fresh. Only instance directories that have gone stale
+ * for the orphan age are reaped; nothing else under the dir is ever touched.
+ */
+@Service
+public class ScratchStorage {
+
+    @FunctionalInterface
+    public interface ScratchWork<T> {
+        T run() throws IOException;
+    }
+
+    @FunctionalInterface
+    public interface StreamWriter {
+        void writeTo(OutputStream out) throws IOException;
+    }
+
+    @Value("${toolbox.scratch.dir:${java.io.tmpdir}/toolbox-scratch}")
+    private String scratchDir;
+
+    @Value("${toolbox.scratch.max-bytes:2147483648}")
+    private long maxBytes;
+
+    @Value("${toolbox.scratch.max-request-bytes:536870912}")
+    private long maxRequestBytes;
+
+    @Value("${toolbox.scratch.orphan-age:PT30M}")
+    private Duration orphanAge;
+
+    private final ThreadLocal<ScratchSpace> bound = new ThreadLocal<>();
+    private final Set<ScratchSpace> openSpaces = ConcurrentHashMap.newKeySet();
+    private final AtomicLong usedBytes = new AtomicLong();
+
+    private static final String INSTANCE_PREFIX = "instance-";
+
+    private Path base;
+    private Path root;
+    private ScratchSpace shared;
+
+    @PostConstruct
+    void init() throws IOException {
+        base = Paths.get(scratchDir).toAbsolutePath();
+        Files.createDirectories(base);
+        root = Files.createTempDirectory(base, INSTANCE_PREFIX + ProcessHandle.current().pid() + "-");
+        shared = new ScratchSpace(this, "shared", maxBytes);
+        reapDeadInstances(Instant.now().minus(orphanAge));
+        TempFile.setTempFileCreationStrategy(new SpaceTempFiles());
+    }
+
+    @PreDestroy
+    void destroy() {
+        ScratchSpace.deleteTree(root);
+    }
+
+    /** Opens a new space for one request or job. Close it when the work (and the response) is done. */
+    public ScratchSpace open(String label) {
+        ScratchSpace space = new ScratchSpace(this, label, maxRequestBytes);
+        openSpaces.add(space);
+        return space;
+    }
+
+    /** Runs {@code work} with {@code space} as the current space of this thread. */
+    public <T> T runIn(ScratchSpace space, ScratchWork<T> work) throws IOException {
+        ScratchSpace previous = bound.get();
+        bound.set(space);
+        try {
+            return work.run();
+        } finally {
+            if (previous != null) {
+                bound.set(previous);
+            } else {
+                bound.remove();
+            }
+        }
+    }
+
+    /** The space bound to this thread, or the shared space if none is. */
+    public ScratchSpace current() {
+        ScratchSpace space = bound.get();
+        return space != null ? space : shared;
+    }
+
+    public File createFile(String prefix, String suffix) throws IOException {
+        return current().createFile(prefix, suffix);
+    }
+
+    public OutputStream newOutputStream(File file) throws IOException {
+        return current().newOutputStream(file);
+    }
+
+    /**
+     * Creates a scratch file in the current space and fills it with
+     * {@code writer}. The file is deleted again if writing fails.
+     */
+    public File writeFile(String prefix, String suffix, StreamWriter writer) throws IOException {
+        ScratchSpace space = current();
+        File file = space.createFile(prefix, suffix);
+        try (OutputStream out = space.newOutputStream(file)) {
+            writer.writeTo(out);
+        } catch (IOException | RuntimeException e) {
+            space.delete(file);
+            throw e;
+        }
+        return file;
+    }
+
+    /**
+     * PDFBox memory settings for a document built or loaded in the current
+     * space: up to {@code maxMainMemoryBytes} on the heap, the rest in the
+     * space's temp dir, capped at what is left of its quota.
+     */
+    public MemoryUsageSetting pdfMemoryUsage(long maxMainMemoryBytes) throws IOException {
+        ScratchSpace space = current();
+        return MemoryUsageSetting.setupMixed(maxMainMemoryBytes, maxMainMemoryBytes + space.getRemainingBytes())
+                .setTempDir(space.tempDir());
+    }
+
+    public Path getRoot() {
+        return root;
+    }
+
+    /** Bytes currently held in scratch files, across all spaces. */
+    public long getBytesInUse() {
+        return usedBytes.get();
+    }
+
+    public long getMaxBytes() {
+        return maxBytes;
+    }
+
+    public int getOpenSpaceCount() {
+        return openSpaces.size();
+    }
+
+    public int getFileCount() {
+        int count = shared.getFileCount();
+        for (ScratchSpace space : openSpaces) {
+            count += space.getFileCount();
+        }
+        return count;
+    }
+
+    /**
+     * Deletes files nobody owns any more: anything under the root not tracked
+     * by an open space, shared-space files, and the directories of instances
+     * that stopped, once older than the orphan age.
+     */
+    @Scheduled(fixedDelayString = "${toolbox.scratch.reap-interval-ms:60000}")
+    void reapOrphans() {
+        Instant cutoff = Instant.now().minus(orphanAge);
+        // Our heartbeat, so other instances never take this dir for a dead one
+        root.toFile().setLastModified(System.currentTimeMillis());
+        reapDeadInstances(cutoff);
+
+        Set<Path> owned = new HashSet<>();
+        for (ScratchSpace space : openSpaces) {
+            space.reconcile();
+            owned.addAll(space.trackedPaths());
+            if (space.getTempDir() != null) {
+                owned.add(space.getTempDir());
+            }
+        }
+        shared.reconcile();
+        Path sharedTempDir = shared.getTempDir();
+        if (sharedTempDir != null) {
+            owned.add(sharedTempDir);
+            try (Stream<Path> stale = Files.list(sharedTempDir)) {
+                stale.filter(path -> path.toFile().lastModified() < cutoff.toEpochMilli())
+                     .forEach(path -> shared.delete(path.toFile()));
+            } catch (IOException ignored) {
+                // Try again next round
+            }
+        }
+
+        try (Stream<Path> files = Files.list(root)) {
+            files.filter(path -> !owned.contains(path))
+                 .filter(path -> path.toFile().lastModified() < cutoff.toEpochMilli())
+                 .forEach(path -> {
+                     if (Files.isDirectory(path)) {
+                         // Temp dir of a space that is gone (or never closed)
+                         ScratchSpace.deleteTree(path);
+                     } else if (shared.owns(path)) {
+                         shared.delete(path.toFile());
+                     } else {
+                         deleteQuietly(path);
+                     }
+                 });
+        } catch (IOException ignored) {
+            // Try again next round
+        }
+    }
+
+    // Instance dirs whose owner hasn't touched them since the cutoff; it has stopped (or crashed)
+    private void reapDeadInstances(Instant cutoff) {
+        try (Stream<Path> instances = Files.list(base)) {
+            instances.filter(path -> path.getFileName().toString().startsWith(INSTANCE_PREFIX))
+                     .filter(Files::isDirectory)
+                     .filter(path -> !path.equals(root))
+                     .filter(path -> path.toFile().lastModified() < cutoff.toEpochMilli())
+                     .forEach(ScratchSpace::deleteTree);
+        } catch (IOException ignored) {
+            // Try again next round
+        }
+    }
+
+    void reserve(long bytes) throws ScratchQuotaExceededException {
+        if (bytes <= 0) {
+            return;
+        }
+        long total = usedBytes.addAndGet(bytes);
+        if (total > maxBytes) {
+            usedBytes.addAndGet(-bytes);
+            throw new ScratchQuotaExceededException("Global scratch quota of " + maxBytes + " bytes exceeded");
+        }
+    }
+
+    void adjustUsed(long delta) {
+        usedBytes.addAndGet(delta);
+    }
+
+    void closed(ScratchSpace space) {
+        openSpaces.remove(space);
+    }
+
+    /**
+     * Puts POI's temp files in the temp dir of whatever space is bound to the
+     * calling thread (the shared one if none is).
+     */
+    private class SpaceTempFiles implements TempFileCreationStrategy {
+        @Override
+        public File createTempFile(String prefix, String suffix) throws IOException {
+            return Files.createTempFile(current().tempDir().toPath(), prefix, suffix).toFile();
+        }
+
+        @Override
+        public File createTempDirectory(String prefix) throws IOException {
+            return Files.createTempDirectory(current().tempDir().toPath(), prefix).toFile();
+        }
+    }
+
+    private static void deleteQuietly(Path path) {
+        try {
+            Files.deleteIfExists(path);
+        } catch (IOException ignored) {
+            // Still in use on some platforms; next sweep gets it
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package com.toolbox.util;
+
+import com.toolbox.service.scratch.ScratchSpace;
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.awt.Dimension;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.HexFormat;
+import java.util.Locale;
+import java.util.regex.Pattern;
+import java.util.zip.ZipFile;
+
+/**
+ * The one copy of an upload that a conversion works from: a scratch file we
+ * own, spooled once when the request is accepted. Spring deletes the original
+ * upload as soon as the request finishes, so anything that outlives the
+ * request (queued jobs) has to copy the upload here first.
+ *
+ * Converters take it as a plain {@link MultipartFile}, but can check for it to
+ * open the file in place, read it through a read-only memory mapping, or use
+ * the probe results (page count, image size) that admission or an earlier
+ * converter already worked out, instead of copying or decoding the input again.
+ */
+public class ConversionInput implements MultipartFile {
+
+    private static final Pattern SLIDE_ENTRY = Pattern.compile("ppt/slides/slide\\d+\\.xml");
+
+    private final Path path;
+    private final String originalFilename;
+    private final String contentType;
+    private final String sha256;
+    private final ScratchSpace space;
+
+    // Created on first use; the mapping is released by the GC, not on delete()
+    private MappedByteBuffer mapped;
+    private Integer pageCount;
+    private Dimension imageSize;
+
+    public ConversionInput(ScratchSpace space, Path path, String originalFilename, String contentType, String sha256) {
+        this.space = space;
+        this.path = path;
+        this.originalFilename = originalFilename;
+        this.contentType = contentType;
+        this.sha256 = sha256;
+    }
+
+    /**
+     * Copies the upload into a scratch file, hashing it on the way through so
+     * the content hash costs no extra pass over the bytes.
+     */
+    public static ConversionInput spool(MultipartFile upload, ScratchSpace space) throws IOException {
+        File spooled = space.createFile("upload-", ".bin");
+        MessageDigest digest = sha256Digest();
+        try (InputStream in = new DigestInputStream(upload.getInputStream(), digest);
+             OutputStream out = space.newOutputStream(spooled)) {
+            in.transferTo(out);
+        } catch (IOException e) {
+            space.delete(spooled);
+            throw e;
+        }
+        return new ConversionInput(space, spooled.toPath(), upload.getOriginalFilename(), upload.getContentType(),
+                HexFormat.of().formatHex(digest.digest()));
+    }
+
+    private static MessageDigest sha256Digest() {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IllegalStateException("SHA-256 not available", e);
+        }
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return contentType;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return getSize() == 0;
+    }
+
+    @Override
+    public long getSize() {
+        try {
+            return Files.size(path);
+        } catch (IOException e) {
+            return 0;
+        }
+    }
+
+    @Override
+    public byte[] getBytes() throws IOException {
+        ByteBuffer buffer = map();
+        byte[] bytes = new byte[buffer.remaining()];
+        buffer.get(bytes);
+        return bytes;
+    }
+
+    /** A fresh stream over the whole content on every call. */
+    @Override
+    public InputStream getInputStream() throws IOException {
+        return new ByteBufferInputStream(map());
+    }
+
+    /**
+     * The content as a read-only buffer over the page cache, mapped once and
+     * shared; each call gets its own position and limit.
+     */
+    public ByteBuffer map() throws IOException {
+        synchronized (this) {
+            if (mapped == null) {
+                try (FileChannel channel = FileChannel.open(path, StandardOpenOption.READ)) {
+                    mapped = channel.map(FileChannel.MapMode.READ_ONLY, 0, channel.size());
+                }
+            }
+            return mapped.duplicate();
+        }
+    }
+
+    /** Lower-case extension of the original filename, which is what routes are chosen by. */
+    public String getFormat() {
+        String name = originalFilename;
+        if (name == null || name.lastIndexOf('.') == -1) return "";
+        return name.substring(name.lastIndexOf('.') + 1).toLowerCase(Locale.ROOT);
+    }
+
+    /**
+     * Pages of a PDF or slides of a PPTX, counted once and cached; -1 for
+     * other formats or if the file can't be read.
+     */
+    public synchronized int getPageCount() {
+        if (pageCount == null) {
+            switch (getFormat()) {
+                case "pdf":
+                    pageCount = pdfPageCount();
+                    break;
+                case "pptx":
+                    pageCount = slideCount();
+                    break;
+                default:
+                    pageCount = -1;
+            }
+        }
+        return pageCount;
+    }
+
+    /** Pixel size of an image upload from its header, cached; never decodes the pixels. */
+    public synchronized Dimension getImageSize() throws IOException {
+        if (imageSize == null) {
+            imageSize = ImageDecoding.readHeaderSize(this);
+        }
+        return new Dimension(imageSize);
+    }
+
+    /**
+     * Reads /Count from the page tree root directly where the file allows it.
+     * Otherwise PDFBox parses the file, which copies every stream it meets
+     * into scratch buffers, so those go to this input's scratch space (capped
+     * by its quota) and not to the heap: this runs before admission.
+     */
+    private int pdfPageCount() {
+        try {
+            int count = PdfPageCount.read(path);
+            if (count >= 0) {
+                return count;
+            }
+            long remaining = space.getRemainingBytes();
+            if (remaining <= 0) {
+                // PDFBox reads a zero cap as "unlimited"
+                return -1;
+            }
+            MemoryUsageSetting spill = MemoryUsageSetting.setupTempFileOnly(remaining).setTempDir(space.tempDir());
+            try (PDDocument document = PDDocument.load(path.toFile(), spill)) {
+                return document.getNumberOfPages();
+            }
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    // Slides are separate zip entries, so the central directory is enough
+    private int slideCount() {
+        try (ZipFile zip = new ZipFile(path.toFile())) {
+            return (int) zip.stream()
+                    .filter(entry -> SLIDE_ENTRY.matcher(entry.getName()).matches())
+                    .count();
+        } catch (IOException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.copy(path, dest.toPath(), StandardCopyOption.REPLACE_EXISTING);
+    }
+
+    /** Hex SHA-256 of the content. */
+    public String getSha256() {
+        return sha256;
+    }
+
+    public Path getPath() {
+        return path;
+    }
+
+    public void delete() {
+        space.delete(path.toFile());
+    }
+}
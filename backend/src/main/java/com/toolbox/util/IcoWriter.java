@@ -0,0 +1,69 @@
+package com.toolbox.util;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.List;
+
+/**
+ * Writes the ICO container: a directory of entries followed by the image
+ * data. Every entry here is a PNG stream, which Windows (Vista on) and all
+ * browsers accept at any size.
+ */
+public final class IcoWriter {
+
+    private static final int HEADER_BYTES = 6;
+    private static final int ENTRY_BYTES = 16;
+
+    /** One square icon size and its PNG bytes. */
+    public static class Entry {
+        private final int size;
+        private final byte[] png;
+
+        public Entry(int size, byte[] png) {
+            if (size < 1 || size > 256) {
+                throw new IllegalArgumentException("ICO sizes go from 1 to 256, got " + size);
+            }
+            this.size = size;
+            this.png = png;
+        }
+
+        public int getSize() {
+            return size;
+        }
+
+        public byte[] getPng() {
+            return png;
+        }
+    }
+
+    private IcoWriter() {
+    }
+
+    public static void write(List<Entry> entries, OutputStream out) throws IOException {
+        ByteBuffer directory = ByteBuffer.allocate(HEADER_BYTES + ENTRY_BYTES * entries.size())
+                .order(ByteOrder.LITTLE_ENDIAN);
+        directory.putShort((short) 0);                 // reserved
+        directory.putShort((short) 1);                 // type: icon
+        directory.putShort((short) entries.size());
+
+        int offset = directory.capacity();
+        for (Entry entry : entries) {
+            directory.put((byte) (entry.size & 0xff)); // width, 0 means 256
+            directory.put((byte) (entry.size & 0xff)); // height
+            directory.put((byte) 0);                   // palette colours: none
+            directory.put((byte) 0);                   // reserved
+            directory.putShort((short) 1);             // colour planes
+            directory.putShort((short) 32);            // bits per pixel
+            directory.putInt(entry.png.length);
+            directory.putInt(offset);
+            offset += entry.png.length;
+        }
+
+        out.write(directory.array());
+        for (Entry entry : entries) {
+            out.write(entry.png);
+        }
+    }
+}
@@ -0,0 +1,125 @@
+package com.toolbox.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import javax.imageio.ImageIO;
+import javax.imageio.ImageReadParam;
+import javax.imageio.ImageReader;
+import javax.imageio.stream.ImageInputStream;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.image.BufferedImage;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Iterator;
+
+/**
+ * Image decoding for converters that only need a small version of the
+ * upload. Dimensions come from the header alone, and downscaled reads use
+ * {@link ImageReadParam#setSourceSubsampling} so the decoder never allocates
+ * the full-resolution raster: a 48MP photo headed for a 256px icon is
+ * decoded at roughly 512px and then scaled properly from there.
+ */
+public final class ImageDecoding {
+
+    private ImageDecoding() {
+    }
+
+    /** Width and height from the image header, without decoding any pixels. */
+    public static Dimension readSize(MultipartFile file) throws IOException {
+        if (file instanceof ConversionInput) {
+            return ((ConversionInput) file).getImageSize();
+        }
+        return readHeaderSize(file);
+    }
+
+    static Dimension readHeaderSize(MultipartFile file) throws IOException {
+        return withReader(file, reader -> new Dimension(reader.getWidth(0), reader.getHeight(0)));
+    }
+
+    /**
+     * Decodes the image at no less than twice the size that fits in
+     * maxWidth x maxHeight (or at full size if it's smaller than that), so
+     * the final scale still has enough pixels to filter from.
+     */
+    public static BufferedImage readForSize(MultipartFile file, int maxWidth, int maxHeight) throws IOException {
+        return withReader(file, reader -> {
+            int width = reader.getWidth(0);
+            int height = reader.getHeight(0);
+            // Integer subsampling keeps every n-th pixel; stop at 2x the fitted size
+            double fit = Math.max((double) width / maxWidth, (double) height / maxHeight);
+            int step = Math.max(1, (int) Math.floor(fit / 2));
+
+            ImageReadParam param = reader.getDefaultReadParam();
+            param.setSourceSubsampling(step, step, 0, 0);
+            return reader.read(0, param);
+        });
+    }
+
+    /**
+     * Scales to fit width x height, keeping the aspect ratio. Large
+     * reductions go in halving steps so bicubic sampling doesn't alias.
+     */
+    public static BufferedImage scaleToFit(BufferedImage image, int width, int height) {
+        double scale = Math.min((double) width / image.getWidth(), (double) height / image.getHeight());
+        int targetWidth = Math.max(1, (int) Math.round(image.getWidth() * scale));
+        int targetHeight = Math.max(1, (int) Math.round(image.getHeight() * scale));
+
+        BufferedImage current = image;
+        int currentWidth = image.getWidth();
+        int currentHeight = image.getHeight();
+        do {
+            currentWidth = Math.max(targetWidth, currentWidth / 2);
+            currentHeight = Math.max(targetHeight, currentHeight / 2);
+            if (currentWidth >= current.getWidth() && currentHeight >= current.getHeight()) {
+                // Upscaling (or nothing to do): one bicubic pass
+                currentWidth = targetWidth;
+                currentHeight = targetHeight;
+            }
+            BufferedImage next = new BufferedImage(currentWidth, currentHeight, BufferedImage.TYPE_INT_ARGB);
+            Graphics2D g = next.createGraphics();
+            g.setRenderingHint(RenderingHints.KEY_INTERPOLATION, RenderingHints.VALUE_INTERPOLATION_BICUBIC);
+            g.setRenderingHint(RenderingHints.KEY_RENDERING, RenderingHints.VALUE_RENDER_QUALITY);
+            g.drawImage(current, 0, 0, currentWidth, currentHeight, null);
+            g.dispose();
+            current = next;
+        } while (currentWidth != targetWidth || currentHeight != targetHeight);
+        return current;
+    }
+
+    @FunctionalInterface
+    private interface ReaderWork<T> {
+        T run(ImageReader reader) throws IOException;
+    }
+
+    private static <T> T withReader(MultipartFile file, ReaderWork<T> work) throws IOException {
+        // A spooled upload is read with random access in place instead of through ImageIO's stream cache
+        if (file instanceof ConversionInput) {
+            try (ImageInputStream in = ImageIO.createImageInputStream(((ConversionInput) file).getPath().toFile())) {
+                return read(file, in, work);
+            }
+        }
+        try (InputStream raw = file.getInputStream();
+             ImageInputStream in = ImageIO.createImageInputStream(raw)) {
+            return read(file, in, work);
+        }
+    }
+
+    private static <T> T read(MultipartFile file, ImageInputStream in, ReaderWork<T> work) throws IOException {
+        if (in == null) {
+            throw new IOException("Cannot read image " + file.getOriginalFilename());
+        }
+        Iterator<ImageReader> readers = ImageIO.getImageReaders(in);
+        if (!readers.hasNext()) {
+            throw new IOException("Unsupported image format: " + file.getOriginalFilename());
+        }
+        ImageReader reader = readers.next();
+        try {
+            reader.setInput(in, true, true);
+            return work.run(reader);
+        } finally {
+            reader.dispose();
+        }
+    }
+}
@@ -0,0 +1,64 @@
+package com.toolbox.util;
+
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.ByteArrayInputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.file.Files;
+
+/**
+ * A {@link MultipartFile} over bytes already in memory, used to pass the
+ * output of one conversion hop to the next without a temp file.
+ */
+public class InMemoryMultipartFile implements MultipartFile {
+
+    private final String originalFilename;
+    private final byte[] data;
+
+    public InMemoryMultipartFile(String originalFilename, byte[] data) {
+        this.originalFilename = originalFilename;
+        this.data = data;
+    }
+
+    @Override
+    public String getName() {
+        return "file";
+    }
+
+    @Override
+    public String getOriginalFilename() {
+        return originalFilename;
+    }
+
+    @Override
+    public String getContentType() {
+        return null;
+    }
+
+    @Override
+    public boolean isEmpty() {
+        return data.length == 0;
+    }
+
+    @Override
+    public long getSize() {
+        return data.length;
+    }
+
+    @Override
+    public byte[] getBytes() {
+        return data;
+    }
+
+    @Override
+    public InputStream getInputStream() {
+        return new ByteArrayInputStream(data);
+    }
+
+    @Override
+    public void transferTo(File dest) throws IOException {
+        Files.write(dest.toPath(), data);
+    }
+}
@@ -0,0 +1,186 @@
+package com.toolbox.util;
+
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * A user supplied page selection such as {@code 1-5,9,20-}. Pages are 1-based
+ * in the spec (that's what users see in their PDF viewer) and resolved to
+ * 0-based indexes against the real page count.
+ */
+public final class PageRanges {
+
+    /**
+     * Most pages a selection is resolved against. The count comes from the
+     * file's own page tree, and a tiny PDF can claim billions of pages.
+     */
+    public static final int MAX_PAGE_COUNT = 100_000;
+
+    private static final PageRanges ALL = new PageRanges(List.of(new int[]{1, -1}));
+
+    // Each range is {first, last}; last == -1 means "to the end of the document"
+    private final List<int[]> ranges;
+
+    private PageRanges(List<int[]> ranges) {
+        this.ranges = ranges;
+    }
+
+    public static PageRanges all() {
+        return ALL;
+    }
+
+    /**
+     * Parses a page spec. A null or blank spec selects every page.
+     *
+     * @throws IllegalArgumentException if the spec is malformed
+     */
+    public static PageRanges parse(String spec) {
+        if (spec == null || spec.isBlank()) {
+            return ALL;
+        }
+        List<int[]> ranges = new ArrayList<>();
+        for (String part : spec.split(",")) {
+            String token = part.trim();
+            if (token.isEmpty()) {
+                continue;
+            }
+            int dash = token.indexOf('-');
+            int first;
+            int last;
+            if (dash == -1) {
+                first = parsePage(token, spec);
+                last = first;
+            } else {
+                String from = token.substring(0, dash).trim();
+                String to = token.substring(dash + 1).trim();
+                first = from.isEmpty() ? 1 : parsePage(from, spec);
+                last = to.isEmpty() ? -1 : parsePage(to, spec);
+                if (last != -1 && last < first) {
+                    throw new IllegalArgumentException("Invalid page range '" + token + "' in '" + spec + "'");
+                }
+            }
+            ranges.add(new int[]{first, last});
+        }
+        if (ranges.isEmpty()) {
+            throw new IllegalArgumentException("No pages selected by '" + spec + "'");
+        }
+        return new PageRanges(ranges);
+    }
+
+    public boolean isAll() {
+        return this == ALL;
+    }
+
+    /**
+     * How many pages of a {@code pageCount} page document are selected. Worked
+     * out from the ranges, so it costs nothing however large the count is.
+     */
+    public int count(int pageCount) {
+        int count = 0;
+        for (int[] range : clamp(pageCount)) {
+            count += range[1] - range[0] + 1;
+        }
+        return count;
+    }
+
+    /**
+     * Returns the selected 0-based page indexes in ascending order, without
+     * duplicates. Pages past the end of the document are ignored.
+     *
+     * @throws IllegalArgumentException if {@code pageCount} is over {@link #MAX_PAGE_COUNT}
+     */
+    public int[] resolve(int pageCount) {
+        checkPageCount(pageCount);
+        int[] pages = new int[count(pageCount)];
+        int i = 0;
+        for (int[] range : clamp(pageCount)) {
+            for (int page = range[0]; page <= range[1]; page++) {
+                pages[i++] = page;
+            }
+        }
+        return pages;
+    }
+
+    /**
+     * The same selection spelled canonically for a {@code pageCount} page
+     * document, so equal selections give equal strings however they were
+     * written (e.g. "3,1-2" and "1-3"), and selecting every page is
+     * {@link #all()}.
+     */
+    public PageRanges normalize(int pageCount) {
+        List<int[]> pages = clamp(pageCount);
+        if (pages.size() == 1 && pages.get(0)[0] == 0 && pages.get(0)[1] == pageCount - 1) {
+            return ALL;
+        }
+        List<int[]> ranges = new ArrayList<>();
+        for (int[] range : pages) {
+            ranges.add(new int[]{range[0] + 1, range[1] + 1});
+        }
+        return new PageRanges(ranges);
+    }
+
+    /**
+     * @throws IllegalArgumentException if {@code pageCount} is over {@link #MAX_PAGE_COUNT}
+     */
+    public static void checkPageCount(int pageCount) {
+        if (pageCount > MAX_PAGE_COUNT) {
+            throw new IllegalArgumentException("Document claims " + pageCount + " pages, at most "
+                    + MAX_PAGE_COUNT + " are supported");
+        }
+    }
+
+    // The selection within the document as sorted, disjoint 0-based {first, last} ranges
+    private List<int[]> clamp(int pageCount) {
+        List<int[]> clamped = new ArrayList<>();
+        for (int[] range : ranges) {
+            int first = range[0] - 1;
+            int last = (range[1] == -1 ? pageCount : Math.min(range[1], pageCount)) - 1;
+            if (first <= last) {
+                clamped.add(new int[]{first, last});
+            }
+        }
+        clamped.sort(Comparator.comparingInt(range -> range[0]));
+        List<int[]> merged = new ArrayList<>();
+        for (int[] range : clamped) {
+            int[] previous = merged.isEmpty() ? null : merged.get(merged.size() - 1);
+            // Overlapping or touching ranges become one; last < pageCount, so last + 1 can't overflow
+            if (previous != null && range[0] <= previous[1] + 1) {
+                previous[1] = Math.max(previous[1], range[1]);
+            } else {
+                merged.add(range);
+            }
+        }
+        return merged;
+    }
+
+    /** The selection as a spec again, e.g. "1-5,9,20-". */
+    @Override
+    public String toString() {
+        StringBuilder sb = new StringBuilder();
+        for (int[] range : ranges) {
+            if (sb.length() > 0) {
+                sb.append(',');
+            }
+            sb.append(range[0]);
+            if (range[1] == -1) {
+                sb.append('-');
+            } else if (range[1] != range[0]) {
+                sb.append('-').append(range[1]);
+            }
+        }
+        return sb.toString();
+    }
+
+    private static int parsePage(String value, String spec) {
+        try {
+            int page = Integer.parseInt(value);
+            if (page < 1) {
+                throw new IllegalArgumentException("Page numbers start at 1: '" + spec + "'");
+            }
+            return page;
+        } catch (NumberFormatException e) {
+            throw new IllegalArgumentException("Invalid page spec '" + spec + "'");
+        }
+    }
+}
@@ -0,0 +1,194 @@
+package com.toolbox.util;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Reads the page count of a PDF from its trailer, xref table and two objects
+ * (the catalog and the page tree root), without parsing anything else. A full
+ * PDFBox load copies every stream of the file into its scratch buffers, which
+ * for a page count is all waste.
+ *
+ * Only classic xref tables with the catalog and page tree root stored as
+ * plain objects are handled. Anything else (xref streams, object streams,
+ * encryption, damaged files) returns -1 and the caller falls back to a real
+ * parse.
+ */
+final class PdfPageCount {
+
+    // startxref sits within the last 1024 bytes by spec; allow for trailing junk
+    private static final int TAIL_BYTES = 4096;
+    // Section headers and the trailer dictionary are short; entries are skipped, not read
+    private static final int LINE_BYTES = 4096;
+    // A page tree root can carry a long /Kids array before /Count
+    private static final int MAX_OBJECT_BYTES = 1024 * 1024;
+    private static final int ENTRY_BYTES = 20;
+
+    private static final Pattern STARTXREF = Pattern.compile("startxref\\s+(\\d+)");
+    private static final Pattern SUBSECTION = Pattern.compile("(\\d+)\\s+(\\d+)\\s*");
+    private static final Pattern ENTRY = Pattern.compile("(\\d{10}) (\\d{5}) ([nf])[ \\r\\n]{2}");
+    private static final Pattern ROOT = Pattern.compile("/Root\\s+(\\d+)\\s+\\d+\\s+R");
+    private static final Pattern PREV = Pattern.compile("/Prev\\s+(\\d+)");
+    private static final Pattern PAGES = Pattern.compile("/Pages\\s+(\\d+)\\s+\\d+\\s+R");
+    private static final Pattern COUNT = Pattern.compile("/Count\\s+(\\d++)(?!\\s+\\d+\\s+R)");
+
+    /** One xref subsection: objects first..first+count-1, entries starting at offset. */
+    private static class Subsection {
+        final long first;
+        final long count;
+        final long offset;
+
+        Subsection(long first, long count, long offset) {
+            this.first = first;
+            this.count = count;
+            this.offset = offset;
+        }
+    }
+
+    private PdfPageCount() {
+    }
+
+    static int read(Path pdf) throws IOException {
+        try (FileChannel channel = FileChannel.open(pdf, StandardOpenOption.READ)) {
+            long size = channel.size();
+            String tail = text(channel, Math.max(0, size - TAIL_BYTES), TAIL_BYTES);
+            Matcher startxref = STARTXREF.matcher(tail);
+            long xref = -1;
+            while (startxref.find()) {
+                xref = Long.parseLong(startxref.group(1));
+            }
+            if (xref < 0 || xref >= size) {
+                return -1;
+            }
+
+            // Newest section first, following /Prev through incremental updates
+            List<Subsection> sections = new ArrayList<>();
+            long root = -1;
+            Set<Long> visited = new HashSet<>();
+            while (xref >= 0 && visited.add(xref)) {
+                String trailer = readTable(channel, xref, sections);
+                if (trailer == null || trailer.contains("/Encrypt")) {
+                    return -1;
+                }
+                if (root < 0) {
+                    Matcher m = ROOT.matcher(trailer);
+                    root = m.find() ? Long.parseLong(m.group(1)) : -1;
+                }
+                Matcher prev = PREV.matcher(trailer);
+                xref = prev.find() ? Long.parseLong(prev.group(1)) : -1;
+            }
+            if (root < 0) {
+                return -1;
+            }
+
+            String catalog = object(channel, sections, root);
+            Matcher pages = catalog != null ? PAGES.matcher(catalog) : null;
+            if (pages == null || !pages.find()) {
+                return -1;
+            }
+            String pageTree = object(channel, sections, Long.parseLong(pages.group(1)));
+            Matcher count = pageTree != null ? COUNT.matcher(pageTree) : null;
+            if (count == null || !count.find()) {
+                return -1;
+            }
+            return Integer.parseInt(count.group(1));
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    /**
+     * Reads the xref table at {@code offset}, adding its subsections to
+     * {@code sections}, and returns the trailer dictionary text (null if
+     * there is no classic table there).
+     */
+    private static String readTable(FileChannel channel, long offset, List<Subsection> sections) throws IOException {
+        String head = text(channel, offset, LINE_BYTES);
+        if (!head.startsWith("xref")) {
+            return null;
+        }
+        long position = offset + lineEnd(head, 0);
+        while (true) {
+            String line = text(channel, position, LINE_BYTES);
+            int start = skipWhitespace(line, 0);
+            if (line.startsWith("trailer", start)) {
+                int end = line.indexOf("startxref", start);
+                return end > 0 ? line.substring(start, end) : line.substring(start);
+            }
+            int eol = lineEnd(line, start);
+            Matcher header = SUBSECTION.matcher(line.substring(start, eol));
+            if (!header.matches()) {
+                return null;
+            }
+            long first = Long.parseLong(header.group(1));
+            long count = Long.parseLong(header.group(2));
+            long entries = position + eol;
+            sections.add(new Subsection(first, count, entries));
+            // Entries are fixed width, so skip straight past them
+            position = entries + count * ENTRY_BYTES;
+            if (position > channel.size()) {
+                return null;
+            }
+        }
+    }
+
+    /** The text of object {@code number} up to its endobj, or null if it isn't a plain in-use object. */
+    private static String object(FileChannel channel, List<Subsection> sections, long number) throws IOException {
+        for (Subsection section : sections) {
+            if (number < section.first || number >= section.first + section.count) {
+                continue;
+            }
+            String entry = text(channel, section.offset + (number - section.first) * ENTRY_BYTES, ENTRY_BYTES);
+            Matcher m = ENTRY.matcher(entry);
+            if (!m.matches() || m.group(3).equals("f")) {
+                return null;
+            }
+            long offset = Long.parseLong(m.group(1));
+            String text = text(channel, offset, MAX_OBJECT_BYTES);
+            if (!text.matches("(?s)\\s*" + number + "\\s+\\d+\\s+obj.*")) {
+                return null;
+            }
+            int end = text.indexOf("endobj");
+            return end > 0 ? text.substring(0, end) : null;
+        }
+        return null;
+    }
+
+    // Latin-1 keeps one char per byte, so string offsets are file offsets
+    private static String text(FileChannel channel, long offset, int length) throws IOException {
+        ByteBuffer buffer = ByteBuffer.allocate((int) Math.max(0, Math.min(length, channel.size() - offset)));
+        while (buffer.hasRemaining() && channel.read(buffer, offset + buffer.position()) > 0) {
+            // Keep reading until full or EOF
+        }
+        return new String(buffer.array(), 0, buffer.position(), StandardCharsets.ISO_8859_1);
+    }
+
+    private static int lineEnd(String text, int from) {
+        int i = from;
+        while (i < text.length() && text.charAt(i) != '\r' && text.charAt(i) != '\n') {
+            i++;
+        }
+        while (i < text.length() && (text.charAt(i) == '\r' || text.charAt(i) == '\n')) {
+            i++;
+        }
+        return i;
+    }
+
+    private static int skipWhitespace(String text, int from) {
+        int i = from;
+        while (i < text.length() && Character.isWhitespace(text.charAt(i))) {
+            i++;
+        }
+        return i;
+    }
+}
@@ -0,0 +1,120 @@
+package com.toolbox.service;
+
+import com.toolbox.model.ChunkedUpload;
+import com.toolbox.service.scratch.ScratchStorage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.UncheckedIOException;
+import java.nio.file.Path;
+import java.time.Duration;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ChunkedUploadServiceTest {
+
+    private static final int CHUNK = 1024;
+
+    @TempDir
+    Path dir;
+
+    private ChunkedUploadService service;
+
+    @BeforeEach
+    void setUp() {
+        ScratchStorage scratchStorage = new ScratchStorage();
+        ReflectionTestUtils.setField(scratchStorage, "scratchDir", dir.toString());
+        ReflectionTestUtils.setField(scratchStorage, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(scratchStorage, "maxRequestBytes", 1L << 20);
+        ReflectionTestUtils.setField(scratchStorage, "orphanAge", Duration.ofMinutes(30));
+        ReflectionTestUtils.invokeMethod(scratchStorage, "init");
+
+        service = new ChunkedUploadService();
+        ReflectionTestUtils.setField(service, "scratchStorage", scratchStorage);
+        ReflectionTestUtils.setField(service, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(service, "chunkSize", CHUNK);
+        // Everything idle is expired at once, so only work in progress keeps an upload alive
+        ReflectionTestUtils.setField(service, "uploadTtl", Duration.ZERO);
+        ReflectionTestUtils.setField(service, "emptyUploadTtl", Duration.ZERO);
+        ReflectionTestUtils.setField(service, "maxOpen", 4);
+    }
+
+    @Test
+    void aChunkStillArrivingKeepsTheUploadOpen() throws Exception {
+        ChunkedUpload upload = service.create("big.pdf", 2 * CHUNK);
+        CountDownLatch halfway = new CountDownLatch(1);
+        CountDownLatch resume = new CountDownLatch(1);
+        CompletableFuture<ChunkedUpload> write = CompletableFuture.supplyAsync(() -> {
+            try {
+                return service.writeChunk(upload.getId(), 0, slowBody(halfway, resume));
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        });
+        assertTrue(halfway.await(5, TimeUnit.SECONDS));
+
+        service.evictStaleUploads();
+        assertTrue(service.find(upload.getId()).isPresent());
+
+        resume.countDown();
+        write.get(5, TimeUnit.SECONDS);
+        assertTrue(upload.isReceived(0));
+
+        // Strictly past the last activity, whatever the clock's resolution
+        Thread.sleep(5);
+        service.evictStaleUploads();
+        assertFalse(service.find(upload.getId()).isPresent());
+    }
+
+    @Test
+    void anExpiredUploadTakesNoMoreChunks() throws Exception {
+        ChunkedUpload upload = service.create("big.pdf", 2 * CHUNK);
+        Thread.sleep(5);
+        service.evictStaleUploads();
+
+        assertThrows(IllegalStateException.class,
+                () -> service.writeChunk(upload.getId(), 0, new ByteArrayInputStream(new byte[CHUNK])));
+        assertFalse(upload.begin());
+    }
+
+    // A chunk body that stops halfway until told to go on, like a stalled slow link
+    private static InputStream slowBody(CountDownLatch halfway, CountDownLatch resume) {
+        return new InputStream() {
+            private int sent;
+
+            @Override
+            public int read() throws IOException {
+                byte[] one = new byte[1];
+                return read(one, 0, 1) == -1 ? -1 : one[0];
+            }
+
+            @Override
+            public int read(byte[] b, int off, int len) throws IOException {
+                if (sent == CHUNK) {
+                    return -1;
+                }
+                if (sent == CHUNK / 2) {
+                    halfway.countDown();
+                    try {
+                        resume.await();
+                    } catch (InterruptedException e) {
+                        throw new IOException(e);
+                    }
+                }
+                int n = Math.min(len, (sent < CHUNK / 2 ? CHUNK / 2 : CHUNK) - sent);
+                sent += n;
+                return n;
+            }
+        };
+    }
+}
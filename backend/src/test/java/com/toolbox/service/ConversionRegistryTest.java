@@ -0,0 +1,115 @@
+package com.toolbox.service;
+
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+import org.springframework.web.multipart.MultipartFile;
+
+import java.io.File;
+import java.util.List;
+import java.util.stream.Collectors;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionRegistryTest {
+
+    /** A converter for one format pair that never converts anything. */
+    private static class Fake implements ConversionService {
+        private final String source;
+        private final String target;
+        private final int cost;
+
+        Fake(String source, String target, int cost) {
+            this.source = source;
+            this.target = target;
+            this.cost = cost;
+        }
+
+        @Override
+        public File convert(MultipartFile file, String targetFormat) {
+            throw new UnsupportedOperationException();
+        }
+
+        @Override
+        public boolean supports(String sourceFormat, String targetFormat) {
+            return source.equalsIgnoreCase(sourceFormat) && target.equalsIgnoreCase(targetFormat);
+        }
+
+        @Override
+        public int cost(String sourceFormat, String targetFormat) {
+            return cost;
+        }
+    }
+
+    private static ConversionRegistry registry(ConversionService... services) {
+        ConversionRegistry registry = new ConversionRegistry();
+        ReflectionTestUtils.setField(registry, "conversionServices", List.of(services));
+        registry.buildIndex();
+        return registry;
+    }
+
+    private static String formats(ConversionRoute route) {
+        return route.getHops().get(0).getSourceFormat() + route.getHops().stream()
+                .map(hop -> "->" + hop.getTargetFormat())
+                .collect(Collectors.joining());
+    }
+
+    @Test
+    void directConverterWinsOverCheaperChain() {
+        Fake direct = new Fake("txt", "png", 10);
+        ConversionRegistry registry = registry(direct, new Fake("txt", "pdf", 1), new Fake("pdf", "png", 1));
+
+        ConversionRoute route = registry.route("TXT", "png");
+        assertEquals(1, route.getHops().size());
+        assertSame(direct, route.getHops().get(0).getService());
+        assertEquals(10, route.getCost());
+    }
+
+    @Test
+    void plansTheCheapestChain() {
+        ConversionRegistry registry = registry(
+                new Fake("txt", "pdf", 1), new Fake("pdf", "png", 5),
+                new Fake("txt", "docx", 1), new Fake("docx", "pdf", 1), new Fake("pdf", "jpg", 1),
+                new Fake("jpg", "png", 1));
+
+        ConversionRoute route = registry.route("txt", "png");
+        assertEquals("txt->pdf->jpg->png", formats(route));
+        assertEquals(3, route.getCost());
+    }
+
+    @Test
+    void firstMatchingConverterWins() {
+        Fake first = new Fake("pdf", "docx", 1);
+        ConversionRegistry registry = registry(first, new Fake("pdf", "docx", 1));
+
+        assertSame(first, registry.direct("pdf", "docx").orElseThrow());
+    }
+
+    @Test
+    void chainsLongerThanThreeHopsAreNotPlanned() {
+        ConversionRegistry registry = registry(
+                new Fake("txt", "pdf", 1), new Fake("pdf", "docx", 1),
+                new Fake("docx", "pptx", 1), new Fake("pptx", "png", 1));
+
+        assertEquals("txt->pdf->docx->pptx", formats(registry.route("txt", "pptx")));
+        assertThrows(IllegalArgumentException.class, () -> registry.route("txt", "png"));
+    }
+
+    @Test
+    void unknownPairsAreRejected() {
+        ConversionRegistry registry = registry(new Fake("txt", "pdf", 1));
+
+        assertThrows(IllegalArgumentException.class, () -> registry.route("pdf", "txt"));
+        assertThrows(IllegalArgumentException.class, () -> registry.route("odt", "pdf"));
+        assertTrue(registry.direct("pdf", "txt").isEmpty());
+    }
+
+    @Test
+    void targetsIncludeRoutedFormats() {
+        ConversionRegistry registry = registry(new Fake("txt", "pdf", 1), new Fake("pdf", "png", 2));
+
+        assertEquals(List.of("pdf", "png"), registry.targetsFor("txt"));
+    }
+}
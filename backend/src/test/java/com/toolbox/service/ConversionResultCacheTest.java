@@ -0,0 +1,170 @@
+package com.toolbox.service;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionResultCacheTest {
+
+    @TempDir
+    Path dir;
+
+    private ConversionResultCache cache(long maxBytes) throws IOException {
+        ConversionResultCache cache = new ConversionResultCache();
+        ReflectionTestUtils.setField(cache, "enabled", true);
+        ReflectionTestUtils.setField(cache, "cacheDir", dir.resolve("cache").toString());
+        ReflectionTestUtils.setField(cache, "maxBytes", maxBytes);
+        cache.init();
+        return cache;
+    }
+
+    private File result(String name, int size) throws IOException {
+        return Files.write(dir.resolve(name), new byte[size]).toFile();
+    }
+
+    @Test
+    void evictsLeastRecentlyUsedFirst() throws IOException {
+        ConversionResultCache cache = cache(25);
+        cache.put("a", new byte[10]);
+        cache.put("b", new byte[10]);
+        // Touch "a" so "b" is now the eldest
+        assertTrue(cache.get("a").isPresent());
+
+        cache.put("c", new byte[10]);
+
+        assertTrue(cache.get("a").isPresent());
+        assertFalse(cache.get("b").isPresent());
+        assertTrue(cache.get("c").isPresent());
+        assertFalse(Files.exists(dir.resolve("cache").resolve("b")));
+        assertEquals(1, cache.getEvictions());
+        assertEquals(20, cache.getSizeBytes());
+        assertEquals(2, cache.getEntryCount());
+    }
+
+    @Test
+    void pinnedEntriesSurviveUntilReleased() throws IOException {
+        ConversionResultCache cache = cache(15);
+        File pinned = cache.put("a", result("a.out", 10));
+        assertTrue(cache.owns(pinned));
+
+        // Over budget, but "a" is still held, so only the unpinned newcomer can go
+        cache.put("b", new byte[10]);
+        assertTrue(pinned.exists());
+        assertFalse(cache.get("b").isPresent());
+
+        cache.release(pinned);
+        assertTrue(pinned.exists());
+        cache.put("c", new byte[10]);
+        assertFalse(pinned.exists());
+        assertTrue(cache.get("c").isPresent());
+        assertEquals(10, cache.getSizeBytes());
+    }
+
+    @Test
+    void acquirePinsAnExistingEntry() throws IOException {
+        ConversionResultCache cache = cache(15);
+        cache.put("a", new byte[10]);
+        File held = cache.acquire("a").orElseThrow();
+
+        cache.put("b", new byte[10]);
+        assertTrue(held.exists());
+        assertFalse(cache.get("b").isPresent());
+
+        cache.release(held);
+        cache.put("b", new byte[10]);
+        assertFalse(held.exists());
+        assertTrue(cache.get("b").isPresent());
+    }
+
+    @Test
+    void oversizedResultsAreNotCached() throws IOException {
+        ConversionResultCache cache = cache(15);
+        File big = result("big.out", 20);
+
+        assertEquals(big, cache.put("a", big));
+        assertFalse(cache.owns(big));
+        cache.put("b", new byte[20]);
+        assertEquals(0, cache.getEntryCount());
+        assertTrue(big.exists());
+    }
+
+    @Test
+    void picksUpEntriesLeftFromBeforeARestart() throws IOException {
+        Path root = Files.createDirectories(dir.resolve("cache"));
+        Files.write(root.resolve("old"), new byte[10]);
+        Files.write(root.resolve("new"), new byte[10]);
+        root.resolve("old").toFile().setLastModified(System.currentTimeMillis() - 60_000);
+
+        ConversionResultCache cache = cache(15);
+
+        assertEquals(1, cache.getEntryCount());
+        assertTrue(cache.get("new").isPresent());
+        assertFalse(Files.exists(root.resolve("old")));
+    }
+
+    @Test
+    void partialWritesLeftByACrashAreDropped() throws IOException {
+        Path root = Files.createDirectories(dir.resolve("cache"));
+        Files.write(root.resolve("done"), new byte[10]);
+        Files.write(root.resolve("done123.part"), new byte[10]);
+
+        ConversionResultCache cache = cache(100);
+
+        assertEquals(1, cache.getEntryCount());
+        assertEquals(10, cache.getSizeBytes());
+        assertFalse(Files.exists(root.resolve("done123.part")));
+    }
+
+    @Test
+    void concurrentWritesOfTheSameKeyDontCollide() throws Exception {
+        ConversionResultCache cache = cache(1 << 20);
+        ExecutorService writers = Executors.newFixedThreadPool(8);
+        try {
+            List<Future<?>> writes = new ArrayList<>();
+            for (int i = 0; i < 64; i++) {
+                writes.add(writers.submit(() -> {
+                    cache.put("same", new byte[4096]);
+                    return null;
+                }));
+            }
+            for (Future<?> write : writes) {
+                write.get(10, TimeUnit.SECONDS);
+            }
+        } finally {
+            writers.shutdownNow();
+        }
+
+        assertTrue(cache.get("same").isPresent());
+        assertEquals(4096, cache.getSizeBytes());
+        try (Stream<Path> files = Files.list(dir.resolve("cache"))) {
+            assertEquals(List.of("same"), files.map(p -> p.getFileName().toString()).toList());
+        }
+    }
+
+    @Test
+    void keyIgnoresOptionOrderButNotValues() {
+        ConversionResultCache cache = new ConversionResultCache();
+        String key = cache.key("abc", "PDF", Map.of("dpi", "150", "pages", "1-3"));
+
+        assertEquals(key, cache.key("abc", "pdf", Map.of("pages", "1-3", "dpi", "150")));
+        assertNotEquals(key, cache.key("abc", "pdf", Map.of("pages", "1-3", "dpi", "300")));
+    }
+}
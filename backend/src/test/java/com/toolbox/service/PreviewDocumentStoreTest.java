@@ -0,0 +1,113 @@
+package com.toolbox.service;
+
+import com.toolbox.service.scratch.ScratchStorage;
+import com.toolbox.util.ConversionInput;
+import com.toolbox.util.InMemoryMultipartFile;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.junit.jupiter.api.BeforeEach;
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PreviewDocumentStoreTest {
+
+    @TempDir
+    Path dir;
+
+    private PreviewDocumentStore store;
+
+    @BeforeEach
+    void setUp() {
+        ScratchStorage scratchStorage = new ScratchStorage();
+        ReflectionTestUtils.setField(scratchStorage, "scratchDir", dir.toString());
+        ReflectionTestUtils.setField(scratchStorage, "maxBytes", 1L << 30);
+        ReflectionTestUtils.setField(scratchStorage, "maxRequestBytes", 1L << 30);
+        ReflectionTestUtils.setField(scratchStorage, "orphanAge", Duration.ofMinutes(30));
+        ReflectionTestUtils.invokeMethod(scratchStorage, "init");
+
+        store = new PreviewDocumentStore();
+        ReflectionTestUtils.setField(store, "scratchStorage", scratchStorage);
+        ReflectionTestUtils.setField(store, "maxCount", 1);
+        ReflectionTestUtils.setField(store, "ttl", Duration.ZERO);
+    }
+
+    @Test
+    void documentsBeingRenderedAreNotEvicted() throws IOException {
+        ConversionInput first = store.retain(pdf("first.pdf", 1));
+        ConversionInput second = store.retain(pdf("second.pdf", 2));
+
+        // Over the count, but both are still held
+        assertEquals(2, store.getCount());
+        assertTrue(Files.exists(first.getPath()));
+
+        store.release(first.getSha256());
+        assertEquals(1, store.getCount());
+        assertFalse(Files.exists(first.getPath()));
+        assertTrue(store.acquire(first.getSha256()).isEmpty());
+
+        assertTrue(Files.exists(second.getPath()));
+        store.release(second.getSha256());
+    }
+
+    @Test
+    void idleSweepSkipsHeldDocuments() throws IOException {
+        ConversionInput pdf = store.retain(pdf("doc.pdf", 1));
+        store.evictIdle();
+        assertTrue(Files.exists(pdf.getPath()));
+
+        ConversionInput held = store.acquire(pdf.getSha256()).orElseThrow();
+        store.release(pdf.getSha256());
+        store.evictIdle();
+        assertTrue(Files.exists(held.getPath()));
+
+        store.release(pdf.getSha256());
+        store.evictIdle();
+        assertEquals(0, store.getCount());
+        assertFalse(Files.exists(pdf.getPath()));
+    }
+
+    @Test
+    void sameBytesShareOneDocument() throws IOException {
+        InMemoryMultipartFile upload = pdf("a.pdf", 3);
+        ConversionInput first = store.retain(upload);
+        ConversionInput again = store.retain(new InMemoryMultipartFile("b.pdf", upload.getBytes()));
+        assertSame(first, again);
+
+        // Two holders now; both have to let go
+        store.release(first.getSha256());
+        store.retain(pdf("other.pdf", 1));
+        assertTrue(Files.exists(first.getPath()));
+        store.release(first.getSha256());
+    }
+
+    @Test
+    void rejectsAnythingButPdf() {
+        assertThrows(IllegalArgumentException.class,
+                () -> store.retain(new InMemoryMultipartFile("notes.txt", "hello".getBytes())));
+        assertEquals(0, store.getCount());
+    }
+
+    private static InMemoryMultipartFile pdf(String name, int pages) throws IOException {
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                document.addPage(new PDPage());
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return new InMemoryMultipartFile(name, out.toByteArray());
+        }
+    }
+}
@@ -0,0 +1,139 @@
+package com.toolbox.service.admission;
+
+import io.micrometer.core.instrument.simple.SimpleMeterRegistry;
+import org.junit.jupiter.api.AfterEach;
+import org.junit.jupiter.api.Test;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.jupiter.api.Assertions.assertDoesNotThrow;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ConversionAdmissionTest {
+
+    // Two workers and a one-slot queue, so anything the admission let through
+    // past the worker count would be rejected by the executor itself
+    private final ThreadPoolExecutor executor = new ThreadPoolExecutor(
+            2, 2, 0, TimeUnit.MILLISECONDS, new ArrayBlockingQueue<>(1), new ThreadPoolExecutor.AbortPolicy());
+
+    private final CountDownLatch gate = new CountDownLatch(1);
+
+    @AfterEach
+    void shutdown() throws InterruptedException {
+        gate.countDown();
+        executor.shutdownNow();
+        executor.awaitTermination(5, TimeUnit.SECONDS);
+    }
+
+    private ConversionAdmission admission(long capacity, int maxBacklog) {
+        ConversionAdmission admission = new ConversionAdmission();
+        ReflectionTestUtils.setField(admission, "conversionExecutor", executor);
+        ReflectionTestUtils.setField(admission, "meterRegistry", new SimpleMeterRegistry());
+        ReflectionTestUtils.setField(admission, "capacity", capacity);
+        ReflectionTestUtils.setField(admission, "maxBacklog", maxBacklog);
+        // Never hold work back for heap in these tests
+        ReflectionTestUtils.setField(admission, "maxHeapFraction", 2.0);
+        admission.init();
+        return admission;
+    }
+
+    // Work that signals once it is running, then blocks until the gate opens
+    private ConversionAdmission.Work blocked(CountDownLatch started) {
+        return () -> {
+            started.countDown();
+            gate.await();
+        };
+    }
+
+    @Test
+    void workBeyondThePoolWaitsInTheBacklog() throws Exception {
+        ConversionAdmission admission = admission(100, 10);
+        CountDownLatch started = new CountDownLatch(2);
+        List<CompletableFuture<Void>> tasks = new ArrayList<>();
+        for (int i = 0; i < 6; i++) {
+            tasks.add(admission.submit(1, blocked(started)));
+        }
+
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertEquals(4, admission.getBacklogSize());
+        assertEquals(2, admission.getInFlightCost());
+        assertTrue(executor.getQueue().isEmpty());
+
+        gate.countDown();
+        for (CompletableFuture<Void> task : tasks) {
+            assertDoesNotThrow(() -> task.get(5, TimeUnit.SECONDS));
+        }
+        assertEquals(0, admission.getBacklogSize());
+    }
+
+    @Test
+    void costBudgetHoldsWorkBackEvenWithAFreeWorker() throws Exception {
+        ConversionAdmission admission = admission(10, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Void> heavy = admission.submit(8, blocked(started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+
+        CompletableFuture<Void> next = admission.submit(5, () -> { });
+        assertEquals(1, admission.getBacklogSize());
+        assertFalse(next.isDone());
+
+        gate.countDown();
+        heavy.get(5, TimeUnit.SECONDS);
+        next.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void oversizedWorkRunsAlone() throws Exception {
+        ConversionAdmission admission = admission(10, 10);
+        CountDownLatch started = new CountDownLatch(1);
+        CompletableFuture<Void> huge = admission.submit(50, blocked(started));
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        // Charged the whole budget, not more
+        assertEquals(10, admission.getInFlightCost());
+
+        CompletableFuture<Void> small = admission.submit(1, () -> { });
+        assertEquals(1, admission.getBacklogSize());
+
+        gate.countDown();
+        huge.get(5, TimeUnit.SECONDS);
+        small.get(5, TimeUnit.SECONDS);
+    }
+
+    @Test
+    void fullBacklogIsRejectedWithARetryHint() throws Exception {
+        ConversionAdmission admission = admission(100, 2);
+        CountDownLatch started = new CountDownLatch(2);
+        for (int i = 0; i < 3; i++) {
+            admission.submit(1, blocked(started));
+        }
+        assertTrue(started.await(5, TimeUnit.SECONDS));
+        assertDoesNotThrow(admission::checkCapacity);
+
+        admission.submit(1, blocked(started));
+        assertTrue(admission.isSaturated());
+        AdmissionRejectedException e = assertThrows(AdmissionRejectedException.class, admission::checkCapacity);
+        assertTrue(e.getRetryAfterSeconds() >= 1);
+    }
+
+    @Test
+    void runRethrowsTheWorkFailure() {
+        ConversionAdmission admission = admission(100, 10);
+
+        IOException e = assertThrows(IOException.class,
+                () -> admission.run(1, () -> { throw new IOException("broken input"); }));
+        assertEquals("broken input", e.getMessage());
+        assertThrows(IllegalArgumentException.class,
+                () -> admission.run(1, () -> { throw new IllegalArgumentException("bad page"); }));
+    }
+}
@@ -0,0 +1,100 @@
+package com.toolbox.service.impl;
+
+import com.toolbox.util.InMemoryMultipartFile;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFPictureData;
+import org.apache.poi.xslf.usermodel.XSLFPictureShape;
+import org.apache.poi.xslf.usermodel.XSLFShape;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+import org.apache.poi.xwpf.usermodel.XWPFPictureData;
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Dimension;
+import java.awt.Graphics2D;
+import java.awt.geom.Rectangle2D;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertInstanceOf;
+import static org.junit.jupiter.api.Assertions.assertNotNull;
+
+class ImageToOfficeConversionServiceTest {
+
+    private final ImageToOfficeConversionService service = new ImageToOfficeConversionService();
+
+    @Test
+    void pptxHoldsTheOriginalPictureBytesAndNothingElse() throws IOException {
+        byte[] png = image(300, 150, "png");
+        byte[] pptx = convert("photo.png", png, "pptx");
+
+        try (XMLSlideShow ppt = new XMLSlideShow(new ByteArrayInputStream(pptx))) {
+            // The 1x1 stand-in must be gone, replaced (not appended to) by the upload
+            List<XSLFPictureData> pictures = ppt.getPictureData();
+            assertEquals(1, pictures.size());
+            assertArrayEquals(png, pictures.get(0).getData());
+            BufferedImage decoded = ImageIO.read(new ByteArrayInputStream(pictures.get(0).getData()));
+            assertNotNull(decoded);
+            assertEquals(300, decoded.getWidth());
+
+            List<XSLFShape> shapes = ppt.getSlides().get(0).getShapes();
+            assertEquals(1, shapes.size());
+            XSLFPictureShape picture = assertInstanceOf(XSLFPictureShape.class, shapes.get(0));
+
+            // Fitted to the slide and centred, keeping the 2:1 aspect ratio
+            Dimension page = ppt.getPageSize();
+            Rectangle2D anchor = picture.getAnchor();
+            assertEquals(page.getWidth(), anchor.getWidth(), 0.5);
+            assertEquals(2.0, anchor.getWidth() / anchor.getHeight(), 0.01);
+            assertEquals((page.getHeight() - anchor.getHeight()) / 2, anchor.getY(), 0.5);
+        }
+    }
+
+    @Test
+    void pptxKeepsJpegBytes() throws IOException {
+        byte[] jpg = image(120, 240, "jpeg");
+        byte[] pptx = convert("photo.jpg", jpg, "pptx");
+
+        try (XMLSlideShow ppt = new XMLSlideShow(new ByteArrayInputStream(pptx))) {
+            assertEquals(1, ppt.getPictureData().size());
+            assertArrayEquals(jpg, ppt.getPictureData().get(0).getData());
+        }
+    }
+
+    @Test
+    void docxHoldsTheOriginalPictureBytes() throws IOException {
+        byte[] png = image(200, 100, "png");
+        byte[] docx = convert("photo.png", png, "docx");
+
+        try (XWPFDocument document = new XWPFDocument(new ByteArrayInputStream(docx))) {
+            List<XWPFPictureData> pictures = document.getAllPictures();
+            assertEquals(1, pictures.size());
+            assertArrayEquals(png, pictures.get(0).getData());
+        }
+    }
+
+    private byte[] convert(String filename, byte[] data, String targetFormat) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        service.convert(new InMemoryMultipartFile(filename, data), targetFormat, out);
+        return out.toByteArray();
+    }
+
+    private static byte[] image(int width, int height, String format) throws IOException {
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillRect(0, 0, width, height);
+        g.setColor(Color.RED);
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, format, out);
+        return out.toByteArray();
+    }
+}
@@ -0,0 +1,72 @@
+package com.toolbox.service.scratch;
+
+import org.junit.jupiter.api.Test;
+import org.junit.jupiter.api.io.TempDir;
+import org.springframework.test.util.ReflectionTestUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.time.Duration;
+
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertNotEquals;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class ScratchStorageTest {
+
+    @TempDir
+    Path dir;
+
+    private ScratchStorage storage() throws IOException {
+        ScratchStorage storage = new ScratchStorage();
+        ReflectionTestUtils.setField(storage, "scratchDir", dir.toString());
+        ReflectionTestUtils.setField(storage, "maxBytes", 1L << 20);
+        ReflectionTestUtils.setField(storage, "maxRequestBytes", 1L << 20);
+        ReflectionTestUtils.setField(storage, "orphanAge", Duration.ofMinutes(30));
+        storage.init();
+        return storage;
+    }
+
+    @Test
+    void secondInstanceLeavesTheFirstOnesFilesAlone() throws IOException {
+        ScratchStorage first = storage();
+        ScratchSpace space = first.open("job");
+        File file = space.createFile("in-", ".pdf");
+
+        ScratchStorage second = storage();
+
+        assertNotEquals(first.getRoot(), second.getRoot());
+        assertTrue(file.exists());
+        space.close();
+    }
+
+    @Test
+    void onlyStaleInstanceDirsAreReaped() throws IOException {
+        Path dead = Files.createDirectories(dir.resolve("instance-1-dead"));
+        Files.write(dead.resolve("left.pdf"), new byte[10]);
+        dead.toFile().setLastModified(System.currentTimeMillis() - Duration.ofHours(1).toMillis());
+        Path unrelated = Files.createDirectories(dir.resolve("someone-elses"));
+        unrelated.toFile().setLastModified(System.currentTimeMillis() - Duration.ofHours(1).toMillis());
+        Path stray = Files.write(dir.resolve("notes.txt"), new byte[1]);
+
+        storage();
+
+        assertFalse(Files.exists(dead));
+        assertTrue(Files.exists(unrelated));
+        assertTrue(Files.exists(stray));
+    }
+
+    @Test
+    void shutdownRemovesOnlyItsOwnDir() throws IOException {
+        ScratchStorage first = storage();
+        ScratchStorage second = storage();
+        second.open("job").createFile("in-", ".pdf");
+
+        second.destroy();
+
+        assertFalse(Files.exists(second.getRoot()));
+        assertTrue(Files.exists(first.getRoot()));
+    }
+}
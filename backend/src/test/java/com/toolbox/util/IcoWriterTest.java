@@ -0,0 +1,65 @@
+package com.toolbox.util;
+
+import org.junit.jupiter.api.Test;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+
+class IcoWriterTest {
+
+    @Test
+    void headerAndDirectoryPointAtEachPng() throws IOException {
+        byte[] small = png(16);
+        byte[] large = png(256);
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        IcoWriter.write(List.of(new IcoWriter.Entry(16, small), new IcoWriter.Entry(256, large)), out);
+        byte[] ico = out.toByteArray();
+
+        ByteBuffer in = ByteBuffer.wrap(ico).order(ByteOrder.LITTLE_ENDIAN);
+        assertEquals(0, in.getShort());      // reserved
+        assertEquals(1, in.getShort());      // type: icon
+        assertEquals(2, in.getShort());      // entries
+
+        int[] sizes = {16, 256};
+        byte[][] pngs = {small, large};
+        int expectedOffset = 6 + 2 * 16;
+        for (int i = 0; i < 2; i++) {
+            // 256 is stored as 0 in the one-byte width and height
+            assertEquals(sizes[i] & 0xff, in.get() & 0xff);
+            assertEquals(sizes[i] & 0xff, in.get() & 0xff);
+            assertEquals(0, in.get());       // palette
+            assertEquals(0, in.get());       // reserved
+            assertEquals(1, in.getShort());  // planes
+            assertEquals(32, in.getShort()); // bits per pixel
+            int length = in.getInt();
+            int offset = in.getInt();
+            assertEquals(pngs[i].length, length);
+            assertEquals(expectedOffset, offset);
+            assertArrayEquals(pngs[i], Arrays.copyOfRange(ico, offset, offset + length));
+            expectedOffset += length;
+        }
+        assertEquals(expectedOffset, ico.length);
+    }
+
+    @Test
+    void rejectsSizesOutsideTheFormat() {
+        assertThrows(IllegalArgumentException.class, () -> new IcoWriter.Entry(0, new byte[0]));
+        assertThrows(IllegalArgumentException.class, () -> new IcoWriter.Entry(257, new byte[0]));
+    }
+
+    private static byte[] png(int size) throws IOException {
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(new BufferedImage(size, size, BufferedImage.TYPE_INT_ARGB), "png", out);
+        return out.toByteArray();
+    }
+}
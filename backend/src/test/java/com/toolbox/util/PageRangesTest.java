@@ -0,0 +1,94 @@
+package com.toolbox.util;
+
+import org.junit.jupiter.api.Test;
+
+import static org.junit.jupiter.api.Assertions.assertArrayEquals;
+import static org.junit.jupiter.api.Assertions.assertEquals;
+import static org.junit.jupiter.api.Assertions.assertFalse;
+import static org.junit.jupiter.api.Assertions.assertSame;
+import static org.junit.jupiter.api.Assertions.assertThrows;
+import static org.junit.jupiter.api.Assertions.assertTrue;
+
+class PageRangesTest {
+
+    @Test
+    void nullOrBlankSelectsEveryPage() {
+        assertSame(PageRanges.all(), PageRanges.parse(null));
+        assertSame(PageRanges.all(), PageRanges.parse("  "));
+        assertTrue(PageRanges.parse("").isAll());
+        assertArrayEquals(new int[]{0, 1, 2}, PageRanges.all().resolve(3));
+    }
+
+    @Test
+    void resolvesToSortedZeroBasedIndexesWithoutDuplicates() {
+        PageRanges pages = PageRanges.parse("9, 1-3,2 ,5");
+        assertFalse(pages.isAll());
+        assertArrayEquals(new int[]{0, 1, 2, 4, 8}, pages.resolve(10));
+    }
+
+    @Test
+    void openRangesRunToEitherEndOfTheDocument() {
+        assertArrayEquals(new int[]{7, 8, 9}, PageRanges.parse("8-").resolve(10));
+        assertArrayEquals(new int[]{0, 1, 2}, PageRanges.parse("-3").resolve(10));
+    }
+
+    @Test
+    void pagesPastTheEndAreIgnored() {
+        assertArrayEquals(new int[]{3, 4}, PageRanges.parse("4-9,12").resolve(5));
+        assertArrayEquals(new int[]{}, PageRanges.parse("6-").resolve(5));
+    }
+
+    @Test
+    void emptyPartsAreSkipped() {
+        assertArrayEquals(new int[]{0, 2}, PageRanges.parse("1,,3,").resolve(5));
+    }
+
+    @Test
+    void rejectsMalformedSpecs() {
+        assertThrows(IllegalArgumentException.class, () -> PageRanges.parse("0"));
+        assertThrows(IllegalArgumentException.class, () -> PageRanges.parse("5-3"));
+        assertThrows(IllegalArgumentException.class, () -> PageRanges.parse("one"));
+        assertThrows(IllegalArgumentException.class, () -> PageRanges.parse("1-2-3"));
+        assertThrows(IllegalArgumentException.class, () -> PageRanges.parse(" , "));
+    }
+
+    @Test
+    void toStringGivesTheSpecBack() {
+        assertEquals("1-5,9,20-", PageRanges.parse("1-5, 9 ,20-").toString());
+        assertEquals("3", PageRanges.parse("3-3").toString());
+        assertEquals("1-", PageRanges.all().toString());
+    }
+
+    @Test
+    void normalizeSpellsEqualSelectionsTheSameWay() {
+        assertEquals("1-3,9", PageRanges.parse("3,1-2,9").normalize(10).toString());
+        assertEquals("1-3,9", PageRanges.parse("1-3,9,2").normalize(10).toString());
+        assertEquals("4-5", PageRanges.parse("4-9,12").normalize(5).toString());
+        assertSame(PageRanges.all(), PageRanges.parse("1-3,2-").normalize(10));
+    }
+
+    @Test
+    void normalizeKeepsTheSelectedPages() {
+        PageRanges pages = PageRanges.parse("2,4-6,10-");
+        assertArrayEquals(pages.resolve(12), pages.normalize(12).resolve(12));
+    }
+
+    @Test
+    void countAgreesWithResolve() {
+        PageRanges pages = PageRanges.parse("9, 1-3,2 ,5,4-");
+        assertEquals(pages.resolve(20).length, pages.count(20));
+        assertEquals(0, PageRanges.parse("6-").count(5));
+    }
+
+    @Test
+    void hugePageCountsAreCountedButNotResolved() {
+        // A tiny PDF can claim /Count 2147483647; nothing may walk or box every page
+        PageRanges open = PageRanges.parse("1-");
+        assertEquals(Integer.MAX_VALUE, open.count(Integer.MAX_VALUE));
+        assertEquals(2, PageRanges.parse("2147483646-").count(Integer.MAX_VALUE));
+        assertSame(PageRanges.all(), open.normalize(Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> open.resolve(Integer.MAX_VALUE));
+        assertThrows(IllegalArgumentException.class, () -> PageRanges.checkPageCount(PageRanges.MAX_PAGE_COUNT + 1));
+        assertEquals(PageRanges.MAX_PAGE_COUNT, open.resolve(PageRanges.MAX_PAGE_COUNT).length);
+    }
+}
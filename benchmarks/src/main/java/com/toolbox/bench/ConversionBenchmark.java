@@ -0,0 +1,73 @@
+package com.toolbox.bench;
+
+import com.toolbox.service.ConversionRegistry;
+import com.toolbox.service.ConversionService;
+import com.toolbox.util.InMemoryMultipartFile;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * One conversion per invocation, for every {@link ConversionService} impl.
+ * Output goes to a counting sink so disk speed doesn't leak into the numbers;
+ * the byte count is returned so the work can't be optimized away.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class ConversionBenchmark {
+
+    // source:target, at least one pair per implementation
+    @Param({
+            "pdf:docx",  // PdfToWord
+            "pdf:pptx",  // PdfToPpt
+            "pdf:xlsx",  // PdfToExcel
+            "pdf:png",   // PdfToImage
+            "txt:pdf",   // TextToPdf
+            "docx:pdf",  // OfficeToPdf
+            "xlsx:pdf",
+            "pptx:pdf",
+            "png:pdf",   // PdfConversion (image to PDF)
+            "jpg:pdf",
+            "png:jpg",   // ImageToImage
+            "jpg:png",
+            "png:ico",   // ImageToIcon
+            "jpg:docx",  // ImageToOffice
+            "jpg:pptx"
+    })
+    public String conversion;
+
+    private ConversionService service;
+    private InMemoryMultipartFile input;
+    private String targetFormat;
+
+    @Setup
+    public void setUp(ToolboxContext toolbox) throws IOException {
+        String[] pair = conversion.split(":");
+        targetFormat = pair[1];
+        service = toolbox.bean(ConversionRegistry.class).direct(pair[0], pair[1])
+                .orElseThrow(() -> new IllegalStateException("No direct converter for " + conversion));
+        input = new InMemoryMultipartFile("input." + pair[0], SyntheticInputs.forFormat(pair[0]));
+    }
+
+    @Benchmark
+    public long convert() throws IOException {
+        CountingSink sink = new CountingSink();
+        service.convert(input, targetFormat, sink);
+        return sink.getCount();
+    }
+}
@@ -0,0 +1,23 @@
+package com.toolbox.bench;
+
+import java.io.OutputStream;
+
+/** Discards output but keeps its length, for a cheap sanity check and to defeat dead-code elimination. */
+final class CountingSink extends OutputStream {
+
+    private long count;
+
+    @Override
+    public void write(int b) {
+        count++;
+    }
+
+    @Override
+    public void write(byte[] b, int off, int len) {
+        count += len;
+    }
+
+    long getCount() {
+        return count;
+    }
+}
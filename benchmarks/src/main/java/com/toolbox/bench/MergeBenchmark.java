@@ -0,0 +1,69 @@
+package com.toolbox.bench;
+
+import com.toolbox.service.PdfToolService;
+import com.toolbox.util.PageRanges;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/** {@link PdfToolService#mergePdfs} over N synthetic documents, whole and trimmed. */
+@State(Scope.Benchmark)
+@BenchmarkMode({Mode.Throughput, Mode.SampleTime})
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 5)
+@Measurement(iterations = 5, time = 5)
+@Fork(1)
+public class MergeBenchmark {
+
+    @Param({"2", "10"})
+    public int documents;
+
+    @Param({"1-", "1-5"})
+    public String pages;
+
+    private PdfToolService pdfToolService;
+    private final List<File> sources = new ArrayList<>();
+    private List<PageRanges> selections;
+
+    @Setup
+    public void setUp(ToolboxContext toolbox) throws IOException {
+        pdfToolService = toolbox.bean(PdfToolService.class);
+        byte[] pdf = SyntheticInputs.pdf(20);
+        for (int i = 0; i < documents; i++) {
+            File file = File.createTempFile("merge-bench-", ".pdf");
+            Files.write(file.toPath(), pdf);
+            sources.add(file);
+        }
+        selections = Collections.nCopies(documents, PageRanges.parse(pages));
+    }
+
+    @TearDown
+    public void tearDown() {
+        sources.forEach(File::delete);
+        sources.clear();
+    }
+
+    @Benchmark
+    public long merge() throws IOException {
+        CountingSink sink = new CountingSink();
+        pdfToolService.mergePdfs(sources, selections, sink);
+        return sink.getCount();
+    }
+}
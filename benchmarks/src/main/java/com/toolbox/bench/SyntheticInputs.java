@@ -0,0 +1,188 @@
+package com.toolbox.bench;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.PDPage;
+import org.apache.pdfbox.pdmodel.PDPageContentStream;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.poi.xslf.usermodel.XMLSlideShow;
+import org.apache.poi.xslf.usermodel.XSLFSlide;
+import org.apache.poi.xslf.usermodel.XSLFTextBox;
+import org.apache.poi.xssf.streaming.SXSSFWorkbook;
+import org.apache.poi.ss.usermodel.Row;
+import org.apache.poi.ss.usermodel.Sheet;
+import org.apache.poi.xwpf.usermodel.XWPFDocument;
+
+import javax.imageio.ImageIO;
+import java.awt.Color;
+import java.awt.Graphics2D;
+import java.awt.Rectangle;
+import java.awt.image.BufferedImage;
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Random;
+
+/**
+ * Deterministic benchmark inputs. Every generator uses a fixed seed, so two
+ * runs (or two releases) convert byte-identical documents and their numbers
+ * can be compared.
+ */
+final class SyntheticInputs {
+
+    private static final long SEED = 42;
+
+    private static final String[] WORDS = {
+            "conversion", "toolbox", "document", "page", "render", "stream", "lorem", "ipsum",
+            "dolor", "sit", "amet", "quarterly", "report", "revenue", "total", "customer"
+    };
+
+    private SyntheticInputs() {
+    }
+
+    static byte[] forFormat(String format) throws IOException {
+        switch (format.toLowerCase()) {
+            case "pdf":
+                return pdf(20);
+            case "txt":
+                return text(20_000);
+            case "docx":
+                return docx(2_000);
+            case "xlsx":
+                return xlsx(20_000, 10);
+            case "pptx":
+                return pptx(20);
+            case "png":
+                return image(3000, 2000, "png");
+            case "jpg":
+            case "jpeg":
+                return image(3000, 2000, "jpeg");
+            default:
+                throw new IllegalArgumentException("No synthetic input for " + format);
+        }
+    }
+
+    /** Text-and-vector pages, roughly what a scanned-free office export looks like. */
+    static byte[] pdf(int pages) throws IOException {
+        Random random = new Random(SEED);
+        try (PDDocument document = new PDDocument()) {
+            for (int i = 0; i < pages; i++) {
+                PDPage page = new PDPage();
+                document.addPage(page);
+                try (PDPageContentStream content = new PDPageContentStream(document, page)) {
+                    content.setNonStrokingColor(new Color(random.nextInt(0xFFFFFF)));
+                    content.addRect(50, 450, 500, 250);
+                    content.fill();
+                    content.beginText();
+                    content.setFont(PDType1Font.HELVETICA, 11);
+                    content.setLeading(14);
+                    content.newLineAtOffset(50, 420);
+                    content.showText("Page " + (i + 1));
+                    for (int line = 0; line < 25; line++) {
+                        content.newLine();
+                        content.showText(sentence(random, 12));
+                    }
+                    content.endText();
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.save(out);
+            return out.toByteArray();
+        }
+    }
+
+    static byte[] text(int lines) {
+        Random random = new Random(SEED);
+        StringBuilder text = new StringBuilder();
+        for (int i = 0; i < lines; i++) {
+            text.append(sentence(random, 5 + random.nextInt(15))).append('\n');
+        }
+        return text.toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    static byte[] docx(int paragraphs) throws IOException {
+        Random random = new Random(SEED);
+        try (XWPFDocument document = new XWPFDocument()) {
+            for (int i = 0; i < paragraphs; i++) {
+                document.createParagraph().createRun().setText(sentence(random, 10 + random.nextInt(30)));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            document.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    static byte[] xlsx(int rows, int columns) throws IOException {
+        Random random = new Random(SEED);
+        SXSSFWorkbook workbook = new SXSSFWorkbook(100);
+        try {
+            Sheet sheet = workbook.createSheet("Data");
+            for (int r = 0; r < rows; r++) {
+                Row row = sheet.createRow(r);
+                for (int c = 0; c < columns; c++) {
+                    if (c % 2 == 0) {
+                        row.createCell(c).setCellValue(WORDS[random.nextInt(WORDS.length)]);
+                    } else {
+                        row.createCell(c).setCellValue(random.nextInt(1_000_000) / 100.0);
+                    }
+                }
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            workbook.write(out);
+            return out.toByteArray();
+        } finally {
+            workbook.dispose();
+            workbook.close();
+        }
+    }
+
+    static byte[] pptx(int slides) throws IOException {
+        Random random = new Random(SEED);
+        try (XMLSlideShow show = new XMLSlideShow()) {
+            for (int i = 0; i < slides; i++) {
+                XSLFSlide slide = show.createSlide();
+                XSLFTextBox title = slide.createTextBox();
+                title.setAnchor(new Rectangle(50, 30, 600, 60));
+                title.setText("Slide " + (i + 1));
+                XSLFTextBox body = slide.createTextBox();
+                body.setAnchor(new Rectangle(50, 120, 600, 350));
+                body.setText(sentence(random, 40));
+            }
+            ByteArrayOutputStream out = new ByteArrayOutputStream();
+            show.write(out);
+            return out.toByteArray();
+        }
+    }
+
+    /** Photo-like noise over gradients, so the codecs can't cheat on flat colour. */
+    static byte[] image(int width, int height, String formatName) throws IOException {
+        Random random = new Random(SEED);
+        BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        for (int y = 0; y < height; y++) {
+            for (int x = 0; x < width; x++) {
+                int noise = random.nextInt(32);
+                int r = (x * 255 / width + noise) & 0xFF;
+                int g = (y * 255 / height + noise) & 0xFF;
+                int b = ((x + y) * 255 / (width + height)) & 0xFF;
+                image.setRGB(x, y, (r << 16) | (g << 8) | b);
+            }
+        }
+        Graphics2D g = image.createGraphics();
+        g.setColor(Color.WHITE);
+        g.fillOval(width / 4, height / 4, width / 2, height / 2);
+        g.dispose();
+        ByteArrayOutputStream out = new ByteArrayOutputStream();
+        ImageIO.write(image, formatName, out);
+        return out.toByteArray();
+    }
+
+    private static String sentence(Random random, int words) {
+        StringBuilder sentence = new StringBuilder();
+        for (int i = 0; i < words; i++) {
+            if (i > 0) {
+                sentence.append(' ');
+            }
+            sentence.append(WORDS[random.nextInt(WORDS.length)]);
+        }
+        return sentence.toString();
+    }
+}
@@ -0,0 +1,48 @@
+package com.toolbox.bench;
+
+import com.toolbox.ToolboxApplication;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.springframework.boot.WebApplicationType;
+import org.springframework.boot.builder.SpringApplicationBuilder;
+import org.springframework.context.ConfigurableApplicationContext;
+
+import java.nio.file.Files;
+import java.nio.file.Path;
+
+/**
+ * The real application context, minus the web server, so the services are
+ * wired exactly as in production (same pools, same scratch storage limits).
+ * Started once per fork.
+ */
+@State(Scope.Benchmark)
+public class ToolboxContext {
+
+    ConfigurableApplicationContext context;
+
+    @Setup
+    public void start() throws Exception {
+        // Own scratch/cache dirs: ScratchStorage wipes its root on startup
+        Path dir = Files.createTempDirectory("toolbox-bench-");
+        context = new SpringApplicationBuilder(ToolboxApplication.class)
+                .web(WebApplicationType.NONE)
+                .logStartupInfo(false)
+                .properties(
+                        "toolbox.scratch.dir=" + dir.resolve("scratch"),
+                        "toolbox.cache.dir=" + dir.resolve("cache"),
+                        "toolbox.cache.enabled=false",
+                        "logging.level.root=WARN")
+                .run();
+    }
+
+    @TearDown
+    public void stop() {
+        context.close();
+    }
+
+    <T> T bean(Class<T> type) {
+        return context.getBean(type);
+    }
+}